@@ -1,5 +1,5 @@
 /*
-  Copyright (C) 2006, 2007 Jeroen Frijters
+  Copyright (C) 2006-2010 Jeroen Frijters
 
   This software is provided 'as-is', without any express or implied
   warranty.  In no event will the authors be held liable for any damages
@@ -26,26 +26,47 @@ package ikvm.internal;
 import cli.System.GC;
 import cli.System.WeakReference;
 
+// This is an open addressed hash table (with linear probing) based on the identity hash code of the keys.
+// Lookups don't take the lock, they read the current table and check the key again after reading the value
+// (because a slot can be reused by put() after the key was removed or collected).
+// Updates are done while holding the monitor. The values of slots whose key has been collected are purged
+// incrementally: put() and remove() advance a sweep cursor over a few slots, and put() also purges the slots it
+// probes over (and reuses them). When the table fills up, or when a complete sweep finds that only a small
+// fraction of the table is live, it is replaced by a new table that only contains the live entries.
 @ikvm.lang.Internal
 public final class WeakIdentityMap
 {
-    private WeakReference[] keys = new WeakReference[16];
-    private Object[] values = new Object[keys.length];
-
-    public WeakIdentityMap()
+    private static final class Table
     {
-        for (int i = 0; i < keys.length; i++)
+        final WeakReference[] keys;
+        final Object[] values;
+        int used;       // the number of non-null keys, protected by the WeakIdentityMap monitor
+        int sweep;      // the next slot to sweep, protected by the WeakIdentityMap monitor
+        int sweepLive;  // the live keys seen by the current sweep, protected by the WeakIdentityMap monitor
+
+        Table(int capacity)
         {
-            keys[i] = new WeakReference(null, true);
-            // NOTE we suppress finalization, to make sure the WeakReference continues to work
-            // while the AppDomain is finalizing for unload (note that for this to work,
-            // the code that instantiates us also has to call SuppressFinalize on us.)
-            GC.SuppressFinalize(keys[i]);
+            keys = new WeakReference[capacity];
+            values = new Object[capacity];
         }
     }
 
+    private static final int MIN_CAPACITY = 16;
+    private static final int SWEEP_STEP = 4;
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    public WeakIdentityMap()
+    {
+    }
+
     protected void finalize()
     {
+        reRegisterForFinalize(table);
+    }
+
+    private static void reRegisterForFinalize(Table t)
+    {
+        WeakReference[] keys = t.keys;
         for (int i = 0; i < keys.length; i++)
         {
             if (keys[i] != null)
@@ -55,19 +76,71 @@ public final class WeakIdentityMap
         }
     }
 
+    private static WeakReference newKey(Object key)
+    {
+        WeakReference k = new WeakReference(key, true);
+        // NOTE we suppress finalization, to make sure the WeakReference continues to work
+        // while the AppDomain is finalizing for unload (note that for this to work,
+        // the code that instantiates us also has to call SuppressFinalize on us.)
+        GC.SuppressFinalize(k);
+        return k;
+    }
+
+    private static int hash(Object key)
+    {
+        // like IdentityHashMap, we mix in the low order bits, because the identity hash codes may be sequential
+        int h = System.identityHashCode(key);
+        return (h << 1) - (h << 8) ^ (h >>> 16);
+    }
+
     public synchronized Object remove(Object key)
     {
-        for (int i = 0; i < keys.length; i++)
+        Table t = table;
+        int i = find(t, key);
+        Object value = null;
+        if (i != -1)
+        {
+            value = t.values[i];
+            t.keys[i].set_Target(null);
+            t.values[i] = null;
+        }
+        sweep(t);
+        return value;
+    }
+
+    // purges the values of the next few slots whose key has been collected (or removed)
+    // and shrinks the table after a complete sweep found only a few live keys
+    private void sweep(Table t)
+    {
+        WeakReference[] keys = t.keys;
+        int mask = keys.length - 1;
+        for (int n = 0; n < SWEEP_STEP; n++)
         {
-            if (keys[i].get_Target() == key)
+            int i = t.sweep;
+            WeakReference k = keys[i];
+            if (k != null)
             {
-		Object value = values[i];
-		keys[i].set_Target(null);
-		values[i] = null;
-                return value;
+                if (k.get_Target() == null)
+                {
+                    t.values[i] = null;
+                }
+                else
+                {
+                    t.sweepLive++;
+                }
+            }
+            t.sweep = (i + 1) & mask;
+            if (t.sweep == 0)
+            {
+                int live = t.sweepLive;
+                t.sweepLive = 0;
+                if (keys.length > MIN_CAPACITY && live * 8 < keys.length)
+                {
+                    rebuild(t);
+                    return;
+                }
             }
         }
-        return null;
     }
 
     // Note that null values are supported, null keys are not
@@ -75,81 +148,132 @@ public final class WeakIdentityMap
     {
         if (key == null)
             throw new NullPointerException();
-        putImpl(key, value, true);
-    }
-
-    private void putImpl(Object key, Object value, boolean tryGC)
-    {
-        int emptySlot = -1;
-        int keySlot = -1;
-        for (int i = 0; i < keys.length; i++)
+        sweep(table);
+        Table t = table;
+        int mask = t.keys.length - 1;
+        int free = -1;
+        int i = hash(key) & mask;
+        for (; ; i = (i + 1) & mask)
         {
-            Object k = keys[i].get_Target();
+            WeakReference k = t.keys[i];
             if (k == null)
             {
-                emptySlot = i;
-                values[i] = null;
+                break;
             }
-            else if (k == key)
+            Object target = k.get_Target();
+            if (target == key)
             {
-                keySlot = i;
+                t.values[i] = value;
+                return;
+            }
+            if (target == null)
+            {
+                // the key was removed or collected, so we can purge the value and reuse the slot
+                t.values[i] = null;
+                if (free == -1)
+                {
+                    free = i;
+                }
             }
         }
-        if (keySlot != -1)
+        if (free != -1)
         {
-            values[keySlot] = value;
+            t.values[free] = value;
+            t.keys[free].set_Target(key);
+            return;
         }
-        else if (emptySlot != -1)
+        if ((t.used + 1) * 4 > t.keys.length * 3)
         {
-            keys[emptySlot].set_Target(key);
-            values[emptySlot] = value;
+            t = rebuild(t);
+            mask = t.keys.length - 1;
+            i = hash(key) & mask;
+            while (t.keys[i] != null)
+            {
+                i = (i + 1) & mask;
+            }
         }
-        else
+        t.values[i] = value;
+        t.keys[i] = newKey(key);
+        t.used++;
+    }
+
+    private Table rebuild(Table t)
+    {
+        int live = 0;
+        for (int i = 0; i < t.keys.length; i++)
         {
-            if (tryGC)
+            if (t.keys[i] != null && t.keys[i].get_Target() != null)
             {
-                GC.Collect(0);
-                putImpl(key, value, false);
-                return;
+                live++;
             }
-            int len = keys.length;
-            WeakReference[] newkeys = new WeakReference[len * 2];
-            Object[] newvalues = new Object[newkeys.length];
-            cli.System.Array.Copy((cli.System.Array)(Object)keys, (cli.System.Array)(Object)newkeys, len);
-            cli.System.Array.Copy((cli.System.Array)(Object)values, (cli.System.Array)(Object)newvalues, len);
-            keys = newkeys;
-            values = newvalues;
-            for (int i = len; i < keys.length; i++)
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < (live + 1) * 2)
+        {
+            capacity *= 2;
+        }
+        Table newTable = new Table(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < t.keys.length; i++)
+        {
+            Object key = t.keys[i] == null ? null : t.keys[i].get_Target();
+            if (key != null)
             {
-                keys[i] = new WeakReference(null, true);
-                GC.SuppressFinalize(keys[i]);
+                int j = hash(key) & mask;
+                while (newTable.keys[j] != null)
+                {
+                    j = (j + 1) & mask;
+                }
+                newTable.values[j] = t.values[i];
+                newTable.keys[j] = newKey(key);
+                newTable.used++;
             }
-            keys[len].set_Target(key);
-            values[len] = value;
         }
+        // the old WeakReferences are not shared with the new table (so that concurrent readers of the old
+        // table are not affected by slot reuse in the new table), they'll be finalized when the old table is no longer used
+        reRegisterForFinalize(t);
+        table = newTable;
+        return newTable;
     }
 
-    public synchronized Object get(Object key)
+    private static int find(Table t, Object key)
     {
-        for (int i = 0; i < keys.length; i++)
+        if (key == null)
         {
-            if (keys[i].get_Target() == key)
+            // the target of empty slots is null as well
+            return -1;
+        }
+        WeakReference[] keys = t.keys;
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask)
+        {
+            WeakReference k = keys[i];
+            if (k == null)
+            {
+                return -1;
+            }
+            if (k.get_Target() == key)
             {
-                return values[i];
+                return i;
             }
         }
-        return null;
     }
 
-    public synchronized boolean containsKey(Object key)
+    public Object get(Object key)
     {
-        for (int i = 0; i < keys.length; i++)
+        Table t = table;
+        int i = find(t, key);
+        if (i == -1)
         {
-            if (keys[i].get_Target() == key)
-            {
-                return true;
-            }
+            return null;
         }
-        return false;
+        Object value = t.values[i];
+        // make sure the slot wasn't reused for another key while we were reading the value
+        return t.keys[i].get_Target() == key ? value : null;
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return find(table, key) != -1;
     }
 }
@@ -0,0 +1,159 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package ikvm.runtime;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import sun.misc.Cleaner;
+import sun.nio.ch.DirectBuffer;
+
+// Explicit release of the native memory behind direct and mapped buffers.
+// Normally this memory is only released when the Cleaner of the buffer runs (after the buffer has been
+// garbage collected), which can be much too late for applications that map many files or allocate
+// large direct buffers. free() runs the Cleaner immediately (for a MappedByteBuffer this unmaps the region).
+// Before the memory is released the buffer is made empty (its capacity, limit and position are set to zero
+// and its address is cleared), so that subsequent accesses through the buffer fail with an exception
+// instead of touching memory that no longer belongs to it.
+// NOTE views (slices, duplicates and typed views) created before the buffer was freed are not invalidated,
+// it is the responsibility of the caller to make sure that they are no longer used.
+// Because of this, free() requires RuntimePermission("ikvm.runtime.DirectBuffers.free") when a SecurityManager is installed.
+public final class DirectBuffers
+{
+    private static final Field capacity;
+    private static final Field limit;
+    private static final Field position;
+    private static final Field mark;
+    private static final Field address;
+    private static final RuntimePermission FREE_PERMISSION = new RuntimePermission("ikvm.runtime.DirectBuffers.free");
+
+    static
+    {
+        Field[] fields = AccessController.doPrivileged(new PrivilegedAction<Field[]>() {
+            public Field[] run()
+            {
+                try
+                {
+                    Field[] fields = new Field[] {
+                        Buffer.class.getDeclaredField("capacity"),
+                        Buffer.class.getDeclaredField("limit"),
+                        Buffer.class.getDeclaredField("position"),
+                        Buffer.class.getDeclaredField("mark"),
+                        Buffer.class.getDeclaredField("address")
+                    };
+                    for (Field f : fields)
+                    {
+                        f.setAccessible(true);
+                    }
+                    return fields;
+                }
+                catch (NoSuchFieldException x)
+                {
+                    throw (InternalError)new InternalError().initCause(x);
+                }
+            }
+        });
+        capacity = fields[0];
+        limit = fields[1];
+        position = fields[2];
+        mark = fields[3];
+        address = fields[4];
+    }
+
+    private DirectBuffers()
+    {
+    }
+
+    // Releases the native memory of a direct buffer (or unmaps a MappedByteBuffer) and invalidates the buffer.
+    // Returns true if the memory was released by this call and false if it had already been released.
+    // Throws an IllegalArgumentException if the buffer is not a direct buffer or if it is a view of another
+    // buffer (in which case the buffer that owns the memory has to be freed).
+    // Throws a SecurityException if the caller doesn't have RuntimePermission("ikvm.runtime.DirectBuffers.free").
+    public static boolean free(Buffer buf)
+    {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+        {
+            sm.checkPermission(FREE_PERMISSION);
+        }
+        if (!(buf instanceof DirectBuffer))
+        {
+            throw new IllegalArgumentException("Not a direct buffer");
+        }
+        DirectBuffer db = (DirectBuffer)buf;
+        Cleaner cleaner = db.cleaner();
+        if (cleaner == null)
+        {
+            if (db.viewedBuffer() != null)
+            {
+                throw new IllegalArgumentException("Buffer is a view of another buffer");
+            }
+            // zero length buffers don't have any native memory to free
+            return false;
+        }
+        synchronized (buf)
+        {
+            if (isFreed(buf))
+            {
+                return false;
+            }
+            invalidate(buf);
+        }
+        // Cleaner.clean() is idempotent, so it doesn't matter if the reference processor races with us
+        cleaner.clean();
+        return true;
+    }
+
+    // Returns true if the buffer has been freed with free()
+    public static boolean isFreed(Buffer buf)
+    {
+        try
+        {
+            return buf instanceof DirectBuffer && address.getLong(buf) == 0 && buf.capacity() == 0;
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    private static void invalidate(Buffer buf)
+    {
+        try
+        {
+            // the bounds are cleared first, so that new accesses fail the bounds check, and the address last,
+            // so that an access that raced with us faults on low memory instead of using the freed block
+            mark.setInt(buf, -1);
+            limit.setInt(buf, 0);
+            position.setInt(buf, 0);
+            capacity.setInt(buf, 0);
+            address.setLong(buf, 0);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package ikvm.runtime;
+
+import ikvm.lang.Internal;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the native memory used by direct ByteBuffers.
+// The reserved memory is the total capacity of the direct buffers that haven't been freed yet (this counter is
+// also used by java.nio.Bits to enforce the direct memory limit). When the native memory pool is enabled
+// (by setting the "ikvm.nio.pool" system property to the maximum number of bytes to keep in the pool),
+// the allocated memory is the native memory handed out by sun.misc.Unsafe.allocateMemory() and not yet freed
+// and the pooled memory is the memory of freed blocks that is kept for reuse.
+public final class DirectMemoryStatistics
+{
+    @Internal
+    public static final LongAdder reservedMemory = new LongAdder();
+    @Internal
+    public static final LongAdder allocatedMemory = new LongAdder();
+    @Internal
+    public static final LongAdder pooledMemory = new LongAdder();
+    @Internal
+    public static final LongAdder poolHits = new LongAdder();
+    @Internal
+    public static final LongAdder poolMisses = new LongAdder();
+
+    private DirectMemoryStatistics()
+    {
+    }
+
+    // returns the number of bytes reserved for direct buffers
+    public static long getReservedMemory()
+    {
+        return reservedMemory.sum();
+    }
+
+    // returns the number of bytes currently allocated (only tracked when the pool is enabled)
+    public static long getAllocatedMemory()
+    {
+        return allocatedMemory.sum();
+    }
+
+    // returns the number of bytes held in the pool
+    public static long getPooledMemory()
+    {
+        return pooledMemory.sum();
+    }
+
+    // returns the number of allocations that were satisfied from the pool
+    public static long getPoolHitCount()
+    {
+        return poolHits.sum();
+    }
+
+    // returns the number of poolable allocations that had to allocate new memory
+    public static long getPoolMissCount()
+    {
+        return poolMisses.sum();
+    }
+}
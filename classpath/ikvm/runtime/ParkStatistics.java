@@ -0,0 +1,87 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+
+package ikvm.runtime;
+
+import ikvm.lang.Internal;
+import java.security.AccessController;
+import java.util.concurrent.atomic.LongAdder;
+import sun.security.action.GetBooleanAction;
+
+// Counters for java.util.concurrent.locks.LockSupport.park. Before it blocks, park spins for a
+// (per thread adaptive) number of iterations, waiting for the permit to become available. The maximum
+// number of iterations can be set with the "ikvm.park.spins" system property (0 disables spinning).
+// The counters are disabled by default, set the "ikvm.park.statistics" system property to true
+// (before LockSupport is initialized) to enable them.
+public final class ParkStatistics
+{
+    @Internal
+    public static final boolean ENABLED = AccessController.doPrivileged(new GetBooleanAction("ikvm.park.statistics")).booleanValue();
+    @Internal
+    public static final LongAdder spinningParks = new LongAdder();
+    @Internal
+    public static final LongAdder spinSuccesses = new LongAdder();
+    @Internal
+    public static final LongAdder blockingParks = new LongAdder();
+
+    private ParkStatistics()
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    // returns the number of park calls that didn't find a permit and started spinning
+    public static long getSpinningParkCount()
+    {
+        return spinningParks.sum();
+    }
+
+    // returns the number of park calls that acquired the permit while spinning
+    public static long getSpinSuccessCount()
+    {
+        return spinSuccesses.sum();
+    }
+
+    // returns the number of park calls that had to block
+    public static long getBlockingParkCount()
+    {
+        return blockingParks.sum();
+    }
+
+    public static double getSpinSuccessRate()
+    {
+        long spinning = spinningParks.sum();
+        return spinning == 0 ? 0.0 : (double)spinSuccesses.sum() / spinning;
+    }
+
+    public static void reset()
+    {
+        spinningParks.reset();
+        spinSuccesses.reset();
+        blockingParks.reset();
+    }
+}
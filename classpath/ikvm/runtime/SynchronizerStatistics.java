@@ -0,0 +1,260 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+
+package ikvm.runtime;
+
+import ikvm.lang.Internal;
+import java.security.AccessController;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import sun.security.action.GetBooleanAction;
+
+// Contention statistics for java.util.concurrent.locks.AbstractQueuedSynchronizer (and hence for ReentrantLock,
+// ReentrantReadWriteLock, Semaphore, CountDownLatch, etc.). This is disabled by default, set the "ikvm.aqs.instrument"
+// system property to true (before AbstractQueuedSynchronizer is initialized) to enable it.
+// When enabled, the statistics are also available from the platform MBean server, as "ikvm.runtime:type=SynchronizerStatistics".
+//
+// NOTE we can't use any java.util.concurrent locks here, because we are called by AbstractQueuedSynchronizer.
+public final class SynchronizerStatistics
+{
+    public static final String OBJECT_NAME = "ikvm.runtime:type=SynchronizerStatistics";
+    @Internal
+    public static final boolean ENABLED = AccessController.doPrivileged(new GetBooleanAction("ikvm.aqs.instrument")).booleanValue();
+    private static final Object lock = new Object();
+    // copy-on-write, so that lookups don't need to lock
+    private static volatile HashMap<Class, Counters> map = new HashMap<Class, Counters>();
+
+    private static final class Counters
+    {
+        final LongAdder acquires = new LongAdder();
+        final LongAdder contendedAcquires = new LongAdder();
+        final LongAdder parkNanos = new LongAdder();
+        final AtomicInteger maxQueueLength = new AtomicInteger();
+
+        void updateMaxQueueLength(int length)
+        {
+            for (;;)
+            {
+                int max = maxQueueLength.get();
+                if (length <= max || maxQueueLength.compareAndSet(max, length))
+                {
+                    return;
+                }
+            }
+        }
+
+        void reset()
+        {
+            acquires.reset();
+            contendedAcquires.reset();
+            parkNanos.reset();
+            maxQueueLength.set(0);
+        }
+    }
+
+    private SynchronizerStatistics()
+    {
+    }
+
+    private static Counters get(Object synchronizer)
+    {
+        Class c = synchronizer.getClass();
+        Counters counters = map.get(c);
+        if (counters == null)
+        {
+            synchronized (lock)
+            {
+                counters = map.get(c);
+                if (counters == null)
+                {
+                    HashMap<Class, Counters> copy = new HashMap<Class, Counters>(map);
+                    counters = new Counters();
+                    copy.put(c, counters);
+                    map = copy;
+                }
+            }
+        }
+        return counters;
+    }
+
+    @Internal
+    public static void acquire(Object synchronizer)
+    {
+        get(synchronizer).acquires.increment();
+    }
+
+    @Internal
+    public static void contendedAcquire(Object synchronizer, int queueLength)
+    {
+        Counters counters = get(synchronizer);
+        counters.contendedAcquires.increment();
+        counters.updateMaxQueueLength(queueLength);
+    }
+
+    @Internal
+    public static void parked(Object synchronizer, long nanos)
+    {
+        get(synchronizer).parkNanos.add(nanos);
+    }
+
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    public static String[] getSynchronizerClassNames()
+    {
+        ArrayList<String> list = new ArrayList<String>();
+        for (Class c : map.keySet())
+        {
+            list.add(c.getName());
+        }
+        Collections.sort(list);
+        return list.toArray(new String[list.size()]);
+    }
+
+    private static Counters find(String className)
+    {
+        for (Map.Entry<Class, Counters> entry : map.entrySet())
+        {
+            if (entry.getKey().getName().equals(className))
+            {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    public static long getAcquireCount(String className)
+    {
+        Counters counters = find(className);
+        return counters == null ? 0 : counters.acquires.sum();
+    }
+
+    public static long getContendedAcquireCount(String className)
+    {
+        Counters counters = find(className);
+        return counters == null ? 0 : counters.contendedAcquires.sum();
+    }
+
+    public static long getParkTimeNanos(String className)
+    {
+        Counters counters = find(className);
+        return counters == null ? 0 : counters.parkNanos.sum();
+    }
+
+    public static int getMaxQueueLength(String className)
+    {
+        Counters counters = find(className);
+        return counters == null ? 0 : counters.maxQueueLength.get();
+    }
+
+    // returns a human readable report, with the synchronizers that spent the most time parked first
+    public static String dump()
+    {
+        ArrayList<Map.Entry<Class, Counters>> list = new ArrayList<Map.Entry<Class, Counters>>(map.entrySet());
+        Collections.sort(list, new Comparator<Map.Entry<Class, Counters>>() {
+            public int compare(Map.Entry<Class, Counters> e1, Map.Entry<Class, Counters> e2)
+            {
+                long t1 = e1.getValue().parkNanos.sum();
+                long t2 = e2.getValue().parkNanos.sum();
+                return t1 < t2 ? 1 : t1 == t2 ? 0 : -1;
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        if (!ENABLED)
+        {
+            sb.append("Synchronizer statistics are disabled (set ikvm.aqs.instrument=true to enable)\n");
+        }
+        for (Map.Entry<Class, Counters> entry : list)
+        {
+            Counters counters = entry.getValue();
+            sb.append(entry.getKey().getName())
+                .append(": acquires=").append(counters.acquires.sum())
+                .append(" contended=").append(counters.contendedAcquires.sum())
+                .append(" parkTimeMillis=").append(counters.parkNanos.sum() / 1000000)
+                .append(" maxQueueLength=").append(counters.maxQueueLength.get())
+                .append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void reset()
+    {
+        for (Counters counters : map.values())
+        {
+            counters.reset();
+        }
+    }
+
+    public static SynchronizerStatisticsMXBean getMXBean()
+    {
+        return new SynchronizerStatisticsMXBean() {
+            public boolean isEnabled()
+            {
+                return SynchronizerStatistics.isEnabled();
+            }
+
+            public String[] getSynchronizerClassNames()
+            {
+                return SynchronizerStatistics.getSynchronizerClassNames();
+            }
+
+            public long getAcquireCount(String className)
+            {
+                return SynchronizerStatistics.getAcquireCount(className);
+            }
+
+            public long getContendedAcquireCount(String className)
+            {
+                return SynchronizerStatistics.getContendedAcquireCount(className);
+            }
+
+            public long getParkTimeNanos(String className)
+            {
+                return SynchronizerStatistics.getParkTimeNanos(className);
+            }
+
+            public int getMaxQueueLength(String className)
+            {
+                return SynchronizerStatistics.getMaxQueueLength(className);
+            }
+
+            public String dump()
+            {
+                return SynchronizerStatistics.dump();
+            }
+
+            public void reset()
+            {
+                SynchronizerStatistics.reset();
+            }
+        };
+    }
+}
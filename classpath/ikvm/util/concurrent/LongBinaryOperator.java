@@ -0,0 +1,27 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ *
+ * Modified for IKVM.NET by Jeroen Frijters
+ */
+
+package ikvm.util.concurrent;
+
+/**
+ * Represents an operation upon two {@code long}-valued operands and
+ * producing a {@code long}-valued result. This has the same shape as
+ * the Java 8 java.util.function.LongBinaryOperator, which we don't have.
+ *
+ * @see LongAccumulator
+ */
+public interface LongBinaryOperator {
+    /**
+     * Applies this operator to the given operands.
+     *
+     * @param left the first operand
+     * @param right the second operand
+     * @return the operator result
+     */
+    long applyAsLong(long left, long right);
+}
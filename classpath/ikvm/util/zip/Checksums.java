@@ -0,0 +1,135 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package ikvm.util.zip;
+
+// Operations on java.util.zip checksum values that aren't part of the Java API.
+// The combine methods compute the checksum of the concatenation of two blocks of data
+// from the checksums of the individual blocks (and the length of the second block),
+// so that chunks can be checksummed independently (e.g. in parallel) and merged afterwards.
+// The algorithms are the same as crc32_combine() and adler32_combine() in zlib.
+public final class Checksums
+{
+    private Checksums()
+    {
+    }
+
+    // Returns the CRC-32 of the concatenation of two blocks, given the CRC32.getValue() of both blocks
+    // and the length of the second block.
+    public static long combineCRC32(long crc1, long crc2, long len2)
+    {
+        if (len2 <= 0)
+        {
+            return crc1;
+        }
+        // appending len2 zero bytes to the first block is a linear operation on the crc,
+        // so we compute it by repeatedly squaring the operator for a single zero bit
+        int[] even = new int[32];   // even-power-of-two zeros operator
+        int[] odd = new int[32];    // odd-power-of-two zeros operator
+        odd[0] = 0xedb88320;        // CRC-32 polynomial
+        int row = 1;
+        for (int n = 1; n < 32; n++)
+        {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+        int c = (int)crc1;
+        // apply len2 zero bytes to crc1 (the first square puts the operator for one zero byte, eight zero bits, in even)
+        do
+        {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0)
+            {
+                c = gf2MatrixTimes(even, c);
+            }
+            len2 >>= 1;
+            if (len2 == 0)
+            {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0)
+            {
+                c = gf2MatrixTimes(odd, c);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+        return (c ^ crc2) & 0xffffffffL;
+    }
+
+    // Returns the Adler-32 of the concatenation of two blocks, given the Adler32.getValue() of both blocks
+    // and the length of the second block.
+    public static long combineAdler32(long adler1, long adler2, long len2)
+    {
+        final long BASE = 65521;
+        if (len2 < 0)
+        {
+            return 0xffffffffL;
+        }
+        long rem = len2 % BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = rem * sum1 % BASE;
+        sum1 += (adler2 & 0xffff) + BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - rem;
+        if (sum1 >= BASE)
+        {
+            sum1 -= BASE;
+        }
+        if (sum1 >= BASE)
+        {
+            sum1 -= BASE;
+        }
+        if (sum2 >= (BASE << 1))
+        {
+            sum2 -= (BASE << 1);
+        }
+        if (sum2 >= BASE)
+        {
+            sum2 -= BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static int gf2MatrixTimes(int[] mat, int vec)
+    {
+        int sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1)
+        {
+            if ((vec & 1) != 0)
+            {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(int[] square, int[] mat)
+    {
+        for (int n = 0; n < 32; n++)
+        {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package ikvm.util.zip;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import sun.misc.SharedSecrets;
+
+// A gzip output stream that compresses independent blocks of input concurrently (like pigz).
+// The input is cut into blocks that are deflated on an ExecutorService, each block is primed
+// with the last 32KB of the previous block as its dictionary (so that matches can still reach
+// back across block boundaries) and all blocks except the last end with a sync flush, so that
+// the compressed blocks can simply be concatenated. The result is a single standard gzip member
+// whose CRC-32 is combined from the per-block CRCs, so it can be read by GZIPInputStream or gunzip.
+public final class ParallelGZIPOutputStream extends FilterOutputStream
+{
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private final int level;
+    private final int blockSize;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final LinkedList<Future<Block>> pendingBlocks = new LinkedList<Future<Block>>();
+    private byte[] buf;
+    private int count;
+    private byte[] prevBuf;
+    private int prevCount;
+    private long crc;
+    private long size;
+    private boolean headerWritten;
+    private boolean finished;
+
+    public ParallelGZIPOutputStream(OutputStream out)
+    {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGZIPOutputStream(OutputStream out, int level)
+    {
+        this(out, level, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    // If executor is null, a shared pool of daemon threads (one per processor) is used.
+    public ParallelGZIPOutputStream(OutputStream out, int level, int blockSize, ExecutorService executor)
+    {
+        super(out);
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("invalid compression level");
+        }
+        if (blockSize <= 0)
+        {
+            throw new IllegalArgumentException("blockSize <= 0");
+        }
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor != null ? executor : SharedPool.executor;
+        // allow enough blocks in flight to keep all processors busy, while bounding the memory use
+        this.maxPendingBlocks = 2 * Runtime.getRuntime().availableProcessors();
+        this.buf = new byte[blockSize];
+    }
+
+    public void write(int b) throws IOException
+    {
+        ensureOpen();
+        if (count == buf.length)
+        {
+            submitBlock(false);
+        }
+        buf[count++] = (byte)b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        ensureOpen();
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0)
+        {
+            // a full block is only submitted once more data arrives, so that finish() always has a last block
+            if (count == buf.length)
+            {
+                submitBlock(false);
+            }
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Compresses the buffered input and writes all compressed data written so far to the
+    // underlying stream. The compressed stream is sync flushed, so a reader can decompress
+    // everything that was written before the flush.
+    public void flush() throws IOException
+    {
+        ensureOpen();
+        if (count != 0)
+        {
+            submitBlock(false);
+        }
+        while (!pendingBlocks.isEmpty())
+        {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+        out.flush();
+    }
+
+    // Writes the remaining compressed data and the gzip trailer, without closing the underlying stream.
+    public void finish() throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+        submitBlock(true);
+        while (!pendingBlocks.isEmpty())
+        {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+        finished = true;
+        buf = null;
+        prevBuf = null;
+        writeInt((int)crc);
+        writeInt((int)size);
+    }
+
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            if (!finished)
+            {
+                // a block failed, don't leave the remaining ones running
+                for (Future<Block> f : pendingBlocks)
+                {
+                    f.cancel(true);
+                }
+                pendingBlocks.clear();
+                finished = true;
+            }
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (finished)
+        {
+            throw new IOException("write beyond end of stream");
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException
+    {
+        if (!headerWritten)
+        {
+            // magic, CM = deflate, no flags, no mtime, no extra flags, OS = 0 (same as GZIPOutputStream)
+            writeShort(GZIP_MAGIC);
+            out.write(Deflater.DEFLATED);
+            out.write(0);
+            writeInt(0);
+            writeShort(0);
+            headerWritten = true;
+        }
+        pendingBlocks.addLast(executor.submit(new Block(level, buf, count, prevBuf, prevCount, last)));
+        // the block owns its input buffer (and it's the next block's dictionary), so we need a new one
+        prevBuf = buf;
+        prevCount = count;
+        buf = last ? null : new byte[blockSize];
+        count = 0;
+        while (pendingBlocks.size() > maxPendingBlocks)
+        {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+    }
+
+    private void writeBlock(Future<Block> future) throws IOException
+    {
+        Block block;
+        try
+        {
+            block = future.get();
+        }
+        catch (InterruptedException x)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException x)
+        {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+        out.write(block.output, 0, block.outputLength);
+        crc = Checksums.combineCRC32(crc, block.crc, block.length);
+        size += block.length;
+    }
+
+    private void writeShort(int s) throws IOException
+    {
+        out.write(s & 0xff);
+        out.write((s >> 8) & 0xff);
+    }
+
+    private void writeInt(int i) throws IOException
+    {
+        writeShort(i & 0xffff);
+        writeShort((i >> 16) & 0xffff);
+    }
+
+    private static final class Block implements Callable<Block>
+    {
+        private final int level;
+        private final byte[] input;
+        private final int length;
+        private final byte[] dict;
+        private final int dictLength;
+        private final boolean last;
+        private byte[] output;
+        private int outputLength;
+        private long crc;
+
+        Block(int level, byte[] input, int length, byte[] dict, int dictLength, boolean last)
+        {
+            this.level = level;
+            this.input = input;
+            this.length = length;
+            this.dict = dict;
+            this.dictLength = dictLength;
+            this.last = last;
+        }
+
+        public Block call()
+        {
+            CRC32 crc32 = new CRC32();
+            crc32.update(input, 0, length);
+            crc = crc32.getValue();
+            Deflater deflater = new Deflater(level, true);
+            try
+            {
+                if (dict != null)
+                {
+                    int len = Math.min(dictLength, DICTIONARY_SIZE);
+                    deflater.setDictionary(dict, dictLength - len, len);
+                }
+                deflater.setInput(input, 0, length);
+                // deflate rarely expands by more than a few bytes per stored block,
+                // so this is usually big enough to not have to grow
+                output = new byte[length + (length >> 4) + 64];
+                if (last)
+                {
+                    deflater.finish();
+                    while (!deflater.finished())
+                    {
+                        ensureOutputSpace();
+                        outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+                    }
+                }
+                else
+                {
+                    for (;;)
+                    {
+                        ensureOutputSpace();
+                        int space = output.length - outputLength;
+                        int n = SharedSecrets.getJavaUtilZipAccess().syncFlush(deflater, output, outputLength, space);
+                        outputLength += n;
+                        if (n < space)
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+            return this;
+        }
+
+        private void ensureOutputSpace()
+        {
+            if (outputLength == output.length)
+            {
+                byte[] newOutput = new byte[output.length * 2];
+                System.arraycopy(output, 0, newOutput, 0, outputLength);
+                output = newOutput;
+            }
+        }
+    }
+
+    private static final class SharedPool
+    {
+        static final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "ParallelGZIPOutputStream");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
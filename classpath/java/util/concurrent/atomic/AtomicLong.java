@@ -54,9 +54,15 @@ public class AtomicLong extends Number implements java.io.Serializable {
      * method works in either case, some constructions should be
      * handled at Java level to avoid locking user-visible locks.
      */
-    static final boolean VM_SUPPORTS_LONG_CAS = false;
+    static final boolean VM_SUPPORTS_LONG_CAS = VMSupportsCS8();
 
-    private long value;
+    /**
+     * Returns whether underlying JVM supports lockless CompareAndSet
+     * for longs. Called only once and cached in VM_SUPPORTS_LONG_CAS.
+     */
+    private static native boolean VMSupportsCS8();
+
+    private volatile long value;
 
     /**
      * Creates a new AtomicLong with the given initial value.
@@ -78,7 +84,7 @@ public class AtomicLong extends Number implements java.io.Serializable {
      *
      * @return the current value
      */
-    public final synchronized long get() {
+    public final long get() {
         return value;
     }
 
@@ -87,7 +93,7 @@ public class AtomicLong extends Number implements java.io.Serializable {
      *
      * @param newValue the new value
      */
-    public final synchronized void set(long newValue) {
+    public final void set(long newValue) {
         value = newValue;
     }
 
@@ -107,11 +113,7 @@ public class AtomicLong extends Number implements java.io.Serializable {
      * @param newValue the new value
      * @return the previous value
      */
-    public final synchronized long getAndSet(long newValue) {
-        long v = value;
-        value = newValue;
-        return v;
-    }
+    public final native long getAndSet(long newValue);
 
     /**
      * Atomically sets the value to the given updated value
@@ -122,13 +124,7 @@ public class AtomicLong extends Number implements java.io.Serializable {
      * @return true if successful. False return indicates that
      * the actual value was not equal to the expected value.
      */
-    public final synchronized boolean compareAndSet(long expect, long update) {
-        if (value == expect) {
-            value = update;
-            return true;
-        }
-        return false;
-    }
+    public final native boolean compareAndSet(long expect, long update);
 
     /**
      * Atomically sets the value to the given updated value
@@ -149,8 +145,8 @@ public class AtomicLong extends Number implements java.io.Serializable {
      *
      * @return the previous value
      */
-    public final synchronized long getAndIncrement() {
-        return value++;
+    public final long getAndIncrement() {
+        return incrementAndGet() - 1;
     }
 
     /**
@@ -158,8 +154,8 @@ public class AtomicLong extends Number implements java.io.Serializable {
      *
      * @return the previous value
      */
-    public final synchronized long getAndDecrement() {
-        return value--;
+    public final long getAndDecrement() {
+        return decrementAndGet() + 1;
     }
 
     /**
@@ -168,10 +164,8 @@ public class AtomicLong extends Number implements java.io.Serializable {
      * @param delta the value to add
      * @return the previous value
      */
-    public final synchronized long getAndAdd(long delta) {
-        long v = value;
-        value += delta;
-        return v;
+    public final long getAndAdd(long delta) {
+        return addAndGet(delta) - delta;
     }
 
     /**
@@ -179,18 +173,14 @@ public class AtomicLong extends Number implements java.io.Serializable {
      *
      * @return the updated value
      */
-    public final synchronized long incrementAndGet() {
-        return ++value;
-    }
+    public final native long incrementAndGet();
 
     /**
      * Atomically decrements by one the current value.
      *
      * @return the updated value
      */
-    public final synchronized long decrementAndGet() {
-        return --value;
-    }
+    public final native long decrementAndGet();
 
     /**
      * Atomically adds the given value to the current value.
@@ -198,10 +188,7 @@ public class AtomicLong extends Number implements java.io.Serializable {
      * @param delta the value to add
      * @return the updated value
      */
-    public final synchronized long addAndGet(long delta) {
-        value += delta;
-        return value;
-    }
+    public final native long addAndGet(long delta);
 
     /**
      * Returns the String representation of the current value.
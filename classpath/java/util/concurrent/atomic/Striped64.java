@@ -0,0 +1,248 @@
+/*
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ *
+ * Modified for IKVM.NET by Jeroen Frijters
+ */
+
+package java.util.concurrent.atomic;
+
+import java.util.Random;
+
+/**
+ * A package-local class holding common representation and mechanics
+ * for classes supporting dynamic striping on 64bit values. The class
+ * extends Number so that concrete subclasses must publicly do so.
+ *
+ * <p>This class maintains a lazily-initialized table of atomically
+ * updated variables, plus an extra "base" field. The table size
+ * is a power of two. Indexing uses masked per-thread hash codes.
+ *
+ * <p>Table entries are of class Cell; a variant of AtomicLong padded
+ * to reduce cache contention on most processors. Padding is overkill
+ * for most Atomics because they are usually irregularly scattered in
+ * memory and thus don't interfere much with each other. But Atomic
+ * objects residing in arrays will tend to be placed adjacent to each
+ * other, and so will most often share cache lines (with a huge
+ * negative performance impact) without this precaution.
+ *
+ * <p>In part because Cells are relatively large, we avoid creating
+ * them until they are needed. When there is no contention, all
+ * updates are made to the base field. Upon first contention (a
+ * failed CAS on base update), the table is initialized to size 2.
+ * The table size is doubled upon further contention until reaching
+ * the nearest power of two greater than or equal to the number of
+ * CPUS.
+ *
+ * <p>Per-thread hash codes are initialized to random values and kept
+ * in a static final ThreadLocal (which IKVM turns into a ThreadStatic
+ * field). Contention and/or table collisions are indicated by failed
+ * CASes when performing an update operation. Upon a collision, if the
+ * table size is less than the capacity, it is doubled in size unless
+ * some other thread holds the lock. If a hashed slot is empty, and
+ * lock is available, a new Cell is created. Otherwise, if the slot
+ * exists, a CAS is tried. Retries proceed by "double hashing", using
+ * a secondary hash (Marsaglia XorShift) to try to find a free slot.
+ *
+ * <p>IKVM: this class and the members used by subclasses are public but
+ * internal to the assembly, so that ikvm.util.concurrent.LongAccumulator
+ * can extend it without the members becoming part of the public API.
+ */
+@ikvm.lang.Internal
+public abstract class Striped64 extends Number {
+
+    /**
+     * Padded variant of AtomicLong supporting only raw accesses plus CAS.
+     * The CAS is implemented with Interlocked.CompareExchange (in map.xml).
+     */
+    @ikvm.lang.Internal
+    public static final class Cell {
+        long p0, p1, p2, p3, p4, p5, p6;
+        @ikvm.lang.Internal
+        public volatile long value;
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        Cell(long x) {
+            value = x;
+        }
+
+        @ikvm.lang.Internal
+        public final native boolean cas(long cmp, long val);
+    }
+
+    /**
+     * Per-thread hash codes. Shared across all instances.
+     * NOTE this must be the first static initializer, because the ThreadLocal
+     * intrinsic only applies when there are no branches before it in the class initializer.
+     */
+    @ikvm.lang.Internal
+    public static final ThreadLocal<int[]> threadHashCode = new ThreadLocal<int[]>();
+
+    /** Generator of new random hash codes */
+    static final Random rng = new Random();
+
+    /** Number of CPUS, to place bound on table size */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Table of cells. When non-null, size is a power of 2.
+     */
+    @ikvm.lang.Internal
+    public transient volatile Cell[] cells;
+
+    /**
+     * Base value, used mainly when there is no contention, but also as
+     * a fallback during table initialization races. Updated via CAS.
+     */
+    @ikvm.lang.Internal
+    public transient volatile long base;
+
+    /**
+     * Spinlock (locked via CAS) used when resizing and/or creating Cells.
+     */
+    @ikvm.lang.Internal
+    public transient volatile int busy;
+
+    /**
+     * Assembly-private default constructor
+     */
+    @ikvm.lang.Internal
+    public Striped64() {
+    }
+
+    /**
+     * CASes the base field.
+     */
+    @ikvm.lang.Internal
+    public final native boolean casBase(long cmp, long val);
+
+    /**
+     * CASes the busy field from 0 to 1 to acquire lock.
+     */
+    final native boolean casBusy();
+
+    /**
+     * Computes the function of current and new value. Subclasses
+     * should open-code this update function for most uses, but the
+     * virtualized form is needed within retryUpdate.
+     *
+     * @param currentValue the current value (of either base or a cell)
+     * @param newValue the argument from a user update call
+     * @return result of the update function
+     */
+    @ikvm.lang.Internal
+    public abstract long fn(long currentValue, long newValue);
+
+    /**
+     * Handles cases of updates involving initialization, resizing,
+     * creating new Cells, and/or contention. See above for
+     * explanation. This method suffers the usual non-modularity
+     * problems of optimistic retry code, relying on rechecked sets of
+     * reads.
+     *
+     * @param x the value
+     * @param hc the hash code holder, or null if not yet initialized
+     * @param wasUncontended false if CAS failed before call
+     */
+    @ikvm.lang.Internal
+    public final void retryUpdate(long x, int[] hc, boolean wasUncontended) {
+        int h;
+        if (hc == null) {
+            threadHashCode.set(hc = new int[1]); // Initialize randomly
+            int r = rng.nextInt(); // Avoid zero to allow xorShift rehash
+            h = hc[0] = (r == 0) ? 1 : r;
+        }
+        else
+            h = hc[0];
+        boolean collide = false;                // True if last slot nonempty
+        for (;;) {
+            Cell[] as; Cell a; int n; long v;
+            if ((as = cells) != null && (n = as.length) > 0) {
+                if ((a = as[(n - 1) & h]) == null) {
+                    if (busy == 0) {            // Try to attach new Cell
+                        Cell r = new Cell(x);   // Optimistically create
+                        if (busy == 0 && casBusy()) {
+                            boolean created = false;
+                            try {               // Recheck under lock
+                                Cell[] rs; int m, j;
+                                if ((rs = cells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                busy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue;           // Slot is now non-empty
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)       // CAS already known to fail
+                    wasUncontended = true;      // Continue after rehash
+                else if (a.cas(v = a.value, fn(v, x)))
+                    break;
+                else if (n >= NCPU || cells != as)
+                    collide = false;            // At max size or stale
+                else if (!collide)
+                    collide = true;
+                else if (busy == 0 && casBusy()) {
+                    try {
+                        if (cells == as) {      // Expand table unless stale
+                            Cell[] rs = new Cell[n << 1];
+                            for (int i = 0; i < n; ++i)
+                                rs[i] = as[i];
+                            cells = rs;
+                        }
+                    } finally {
+                        busy = 0;
+                    }
+                    collide = false;
+                    continue;                   // Retry with expanded table
+                }
+                h ^= h << 13;                   // Rehash
+                h ^= h >>> 17;
+                h ^= h << 5;
+                hc[0] = h;                      // Record index for next time
+            }
+            else if (busy == 0 && cells == as && casBusy()) {
+                boolean init = false;
+                try {                           // Initialize table
+                    if (cells == as) {
+                        Cell[] rs = new Cell[2];
+                        rs[h & 1] = new Cell(x);
+                        cells = rs;
+                        init = true;
+                    }
+                } finally {
+                    busy = 0;
+                }
+                if (init)
+                    break;
+            }
+            else if (casBase(v = base, fn(v, x)))
+                break;                          // Fall back on using base
+        }
+    }
+
+    /**
+     * Sets base and all cells to the given value.
+     */
+    @ikvm.lang.Internal
+    public final void internalReset(long initialValue) {
+        Cell[] as = cells;
+        base = initialValue;
+        if (as != null) {
+            int n = as.length;
+            for (int i = 0; i < n; ++i) {
+                Cell a = as[i];
+                if (a != null)
+                    a.value = initialValue;
+            }
+        }
+    }
+}
@@ -721,6 +721,14 @@ namespace IKVM.Internal.MapXml
 		}
 	}
 
+	[XmlType("stind_i8")]
+	public sealed class Stind_i8 : Simple
+	{
+		public Stind_i8() : base(OpCodes.Stind_I8)
+		{
+		}
+	}
+
 	[XmlType("stind_ref")]
 	public sealed class Stind_ref : Simple
 	{
@@ -1009,6 +1017,14 @@ namespace IKVM.Internal.MapXml
 		}
 	}
 
+	[XmlType("initblk")]
+	public sealed class Initblk : Simple
+	{
+		public Initblk() : base(OpCodes.Initblk)
+		{
+		}
+	}
+
 	[XmlType("ceq")]
 	public sealed class Ceq : Simple
 	{
@@ -1192,6 +1208,7 @@ namespace IKVM.Internal.MapXml
 		[XmlElement(typeof(Stind_i1))]
 		[XmlElement(typeof(Stind_i2))]
 		[XmlElement(typeof(Stind_i4))]
+		[XmlElement(typeof(Stind_i8))]
 		[XmlElement(typeof(Stind_ref))]
 		[XmlElement(typeof(Ret))]
 		[XmlElement(typeof(Throw))]
@@ -1221,6 +1238,7 @@ namespace IKVM.Internal.MapXml
 		[XmlElement(typeof(Mul))]
 		[XmlElement(typeof(Unaligned))]
 		[XmlElement(typeof(Cpblk))]
+		[XmlElement(typeof(Initblk))]
 		[XmlElement(typeof(Ceq))]
 		[XmlElement(typeof(ConditionalInstruction))]
 		[XmlElement(typeof(Volatile))]
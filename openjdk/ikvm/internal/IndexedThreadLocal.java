@@ -0,0 +1,218 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package ikvm.internal;
+
+// This is the ThreadLocal implementation used for all "new ThreadLocal()" instantiations
+// that can't be replaced by a ThreadStatic field based IntrinsicThreadLocal (i.e. the ones
+// that are not executed exactly once in a class initializer).
+// Each instance gets a small integer index and the values are stored in an array that is
+// held in a ThreadStatic field, so get() doesn't have to do a hash lookup.
+// Indexes are recycled when an instance is collected, to be able to tell stale values apart
+// every instance also gets a unique (non-zero) generation number that is stored next to the value.
+// Stale values are cleared lazily, whenever a thread stores a value after an instance was collected.
+// The live generations array is published through a volatile field, so this doesn't require taking the lock.
+// This class is public and not final so that it can also be subclassed (to override initialValue()).
+
+public class IndexedThreadLocal<T> extends ThreadLocal<T>
+{
+    private static final class Values
+    {
+        Object[] values;
+        int[] generations;
+        int freedSeen;
+
+        Values(int length)
+        {
+            values = new Object[length];
+            generations = new int[length];
+        }
+    }
+
+    // the Slot is only reachable from its IndexedThreadLocal, so when that is collected the slot can be recycled
+    private static final class Slot
+    {
+        final int index;
+
+        Slot(int index)
+        {
+            this.index = index;
+        }
+
+        protected void finalize()
+        {
+            free(index);
+        }
+    }
+
+    @cli.System.ThreadStaticAttribute.Annotation
+    private static Values current;
+
+    private static final Object lock = new Object();
+    // liveGenerations is only modified while holding lock, but it is republished after
+    // every modification so that expungeStaleValues() can read it without the lock
+    private static volatile int[] liveGenerations = new int[16];
+    // the following fields are protected by lock
+    private static int[] freeList = new int[16];
+    private static int freeCount;
+    private static int nextIndex;
+    private static int nextGeneration;
+    private static volatile int freedCount;
+
+    private final int index;
+    private final int generation;
+    private final Slot slot;
+
+    public IndexedThreadLocal()
+    {
+        synchronized (lock)
+        {
+            int index;
+            if (freeCount != 0)
+            {
+                index = freeList[--freeCount];
+            }
+            else
+            {
+                index = nextIndex++;
+            }
+            int[] live = liveGenerations;
+            if (index >= live.length)
+            {
+                int[] newLiveGenerations = new int[live.length * 2];
+                System.arraycopy(live, 0, newLiveGenerations, 0, live.length);
+                live = newLiveGenerations;
+            }
+            int generation = ++nextGeneration;
+            if (generation == 0)
+            {
+                // zero means "no value"
+                generation = ++nextGeneration;
+            }
+            live[index] = generation;
+            liveGenerations = live;
+            this.index = index;
+            this.generation = generation;
+        }
+        slot = new Slot(index);
+    }
+
+    private static void free(int index)
+    {
+        synchronized (lock)
+        {
+            int[] live = liveGenerations;
+            live[index] = 0;
+            liveGenerations = live;
+            if (freeCount == freeList.length)
+            {
+                int[] newFreeList = new int[freeCount * 2];
+                System.arraycopy(freeList, 0, newFreeList, 0, freeCount);
+                freeList = newFreeList;
+            }
+            freeList[freeCount++] = index;
+            freedCount++;
+        }
+    }
+
+    public T get()
+    {
+        Values v = current;
+        if (v != null && index < v.generations.length && v.generations[index] == generation)
+        {
+            return (T)v.values[index];
+        }
+        T value = initialValue();
+        set(value);
+        return value;
+    }
+
+    public void set(T value)
+    {
+        Values v = current;
+        if (v == null)
+        {
+            current = v = new Values(Math.max(index + 1, 8));
+            v.freedSeen = freedCount;
+        }
+        else
+        {
+            if (v.freedSeen != freedCount)
+            {
+                expungeStaleValues(v);
+            }
+            if (index >= v.generations.length)
+            {
+                grow(v, index + 1);
+            }
+        }
+        v.values[index] = value;
+        v.generations[index] = generation;
+    }
+
+    public void remove()
+    {
+        Values v = current;
+        if (v != null && index < v.generations.length && v.generations[index] == generation)
+        {
+            v.values[index] = null;
+            v.generations[index] = 0;
+        }
+    }
+
+    // used by pooled threads (see Thread.java) to discard all values when a Java thread ends
+    @ikvm.lang.Internal
+    public static void clearCurrentThread()
+    {
+        current = null;
+    }
+
+    private static void grow(Values v, int minLength)
+    {
+        int length = Math.max(minLength, v.generations.length * 2);
+        Object[] values = new Object[length];
+        int[] generations = new int[length];
+        System.arraycopy(v.values, 0, values, 0, v.values.length);
+        System.arraycopy(v.generations, 0, generations, 0, v.generations.length);
+        v.values = values;
+        v.generations = generations;
+    }
+
+    private static void expungeStaleValues(Values v)
+    {
+        // read freedCount before liveGenerations, so that a free() that we miss will trigger another scan
+        int freed = freedCount;
+        int[] live = liveGenerations;
+        int[] generations = v.generations;
+        int length = Math.min(generations.length, live.length);
+        for (int i = 0; i < length; i++)
+        {
+            if (generations[i] != 0 && generations[i] != live[i])
+            {
+                v.values[i] = null;
+                generations[i] = 0;
+            }
+        }
+        v.freedSeen = freed;
+    }
+}
@@ -23,6 +23,8 @@
 */
 package ikvm.internal;
 
+import java.util.ArrayList;
+
 // This is the base class for intrinsified ThreadLocals, it's main purpose
 // is to avoid having to add a remove() method to every generated class,
 // but it also gives us some maneuvering room should a future JDK version
@@ -32,10 +34,82 @@ package ikvm.internal;
 // We don't use HideFromJava for this, because that would make the life of
 // the runtime/ikvmc more difficult (because it needs a TypeWrapper for this class).
 
+// When a .NET thread is used to run more than one Java thread (see the ikvm.thread.pool property in Thread.java),
+// the generated set() method calls track() to record the intrinsified ThreadLocals that were set on the thread,
+// so that their values can be cleared before the .NET thread is reused.
+// Every instance gets a unique index (there are only a few, because they are all created in class initializers),
+// so that track() can check a per-thread flag array instead of searching the list.
+
 public abstract class IntrinsicThreadLocal extends ThreadLocal
 {
+    private static final class Tracker
+    {
+        final ArrayList<IntrinsicThreadLocal> list = new ArrayList<IntrinsicThreadLocal>();
+        boolean[] tracked = new boolean[16];
+    }
+
+    @cli.System.ThreadStaticAttribute.Annotation
+    private static Tracker tracker;
+    private static int nextIndex;
+
+    private final int index = allocIndex();
+
+    private static synchronized int allocIndex()
+    {
+        return nextIndex++;
+    }
+
     public final void remove()
     {
         set(null);
     }
+
+    protected final void track()
+    {
+        Tracker t = tracker;
+        if (t != null)
+        {
+            boolean[] tracked = t.tracked;
+            if (index >= tracked.length)
+            {
+                boolean[] newTracked = new boolean[Math.max(index + 1, tracked.length * 2)];
+                System.arraycopy(tracked, 0, newTracked, 0, tracked.length);
+                t.tracked = tracked = newTracked;
+            }
+            if (!tracked[index])
+            {
+                tracked[index] = true;
+                t.list.add(this);
+            }
+        }
+    }
+
+    @ikvm.lang.Internal
+    public static void enterPooledThread()
+    {
+        if (tracker == null)
+        {
+            tracker = new Tracker();
+        }
+    }
+
+    @ikvm.lang.Internal
+    public static void leavePooledThread()
+    {
+        Tracker t = tracker;
+        if (t != null)
+        {
+            // detach the tracker while we clear the values, to prevent set(null) from tracking them again
+            tracker = null;
+            ArrayList<IntrinsicThreadLocal> list = t.list;
+            for (int i = 0; i < list.size(); i++)
+            {
+                IntrinsicThreadLocal tl = list.get(i);
+                tl.set(null);
+                t.tracked[tl.index] = false;
+            }
+            list.clear();
+            tracker = t;
+        }
+    }
 }
@@ -0,0 +1,169 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net
+
+*/
+package ikvm.internal;
+
+import java.lang.reflect.Field;
+
+// This is the base class for the field accessors that sun.misc.Unsafe uses to implement
+// the volatile and compare-and-swap operations on fields. The runtime subclasses this
+// for int, long and reference fields that it can access directly (using Interlocked and volatile
+// loads/stores), the methods here are the slow (reflection based) fallback for all other fields.
+
+public class UnsafeFieldAccessor
+{
+    private final Field field;
+
+    public UnsafeFieldAccessor(Field field)
+    {
+        this.field = field;
+    }
+
+    public final Field getField()
+    {
+        return field;
+    }
+
+    public synchronized boolean compareAndSwapInt(Object obj, int expect, int update)
+    {
+        try
+        {
+            if (field.getInt(obj) == expect)
+            {
+                field.setInt(obj, update);
+                return true;
+            }
+            return false;
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized int getIntVolatile(Object obj)
+    {
+        try
+        {
+            return field.getInt(obj);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized void putIntVolatile(Object obj, int newValue)
+    {
+        try
+        {
+            field.setInt(obj, newValue);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized boolean compareAndSwapLong(Object obj, long expect, long update)
+    {
+        try
+        {
+            if (field.getLong(obj) == expect)
+            {
+                field.setLong(obj, update);
+                return true;
+            }
+            return false;
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized long getLongVolatile(Object obj)
+    {
+        try
+        {
+            return field.getLong(obj);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized void putLongVolatile(Object obj, long newValue)
+    {
+        try
+        {
+            field.setLong(obj, newValue);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized boolean compareAndSwapObject(Object obj, Object expect, Object update)
+    {
+        try
+        {
+            if (field.get(obj) == expect)
+            {
+                field.set(obj, update);
+                return true;
+            }
+            return false;
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized Object getObjectVolatile(Object obj)
+    {
+        try
+        {
+            return field.get(obj);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+
+    public synchronized void putObjectVolatile(Object obj, Object newValue)
+    {
+        try
+        {
+            field.set(obj, newValue);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw (InternalError)new InternalError().initCause(x);
+        }
+    }
+}
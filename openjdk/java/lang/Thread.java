@@ -25,6 +25,8 @@
 
 package java.lang;
 
+import ikvm.internal.IndexedThreadLocal;
+import ikvm.internal.IntrinsicThreadLocal;
 import java.security.AccessController;
 import java.security.AccessControlContext;
 import java.security.PrivilegedAction;
@@ -142,6 +144,168 @@ class Thread implements Runnable {
             thread.die();
         }
     }
+
+    // [IKVM] Optional pool of .NET threads that are reused to run Java threads, to avoid the cost of
+    // creating and destroying a .NET thread for each short lived Java thread.
+    // It is enabled by setting the ikvm.thread.pool system property to the maximum number of idle .NET threads
+    // and idle threads exit after ikvm.thread.pool.keepalive milliseconds (default 30000).
+    // Threads with an explicit stack size or when ikvm.apartmentstate is set always get their own .NET thread.
+    // Note that the .NET thread name can only be set once, so pooled threads don't carry the Java thread name.
+    private static final class NativeThreadPool {
+        static final int maxIdle;
+        private static final int keepAlive;
+        private static final Object lock = new Object();
+        private static Worker idle;     // protected by lock
+        private static int idleCount;   // protected by lock
+
+        static {
+            int max = 0;
+            int timeout = 30000;
+            if (Props.props.getProperty("ikvm.apartmentstate", "").length() == 0) {
+                try {
+                    max = Integer.parseInt(Props.props.getProperty("ikvm.thread.pool", "0"));
+                    timeout = Integer.parseInt(Props.props.getProperty("ikvm.thread.pool.keepalive", "30000"));
+                }
+                catch (NumberFormatException _) {
+                }
+            }
+            maxIdle = max;
+            keepAlive = timeout;
+        }
+
+        private static final class Worker {
+            final cli.System.Threading.Thread nativeThread;
+            Worker next;        // protected by NativeThreadPool.lock
+            Thread task;        // protected by the Worker's monitor
+
+            Worker() {
+                nativeThread = new cli.System.Threading.Thread(new cli.System.Threading.ThreadStart(new cli.System.Threading.ThreadStart.Method() {
+                    public void Invoke() {
+                        loop();
+                    }
+                }));
+                nativeThread.set_Name("IKVM Pooled Thread");
+                nativeThread.set_IsBackground(true);
+            }
+
+            private void loop() {
+                IntrinsicThreadLocal.enterPooledThread();
+                Thread t;
+                synchronized (this) {
+                    t = task;
+                }
+                while (t != null) {
+                    try {
+                        nativeThread.set_IsBackground(t.daemon);
+                        nativeThread.set_Priority(cli.System.Threading.ThreadPriority.wrap(mapJavaPriorityToClr(t.priority)));
+                        t.threadProc();
+                    }
+                    catch (Throwable _) {
+                        // a Thread.stop() abort that wasn't consumed by threadProc() (e.g. because it arrived
+                        // while die() was running), the worker has to survive it to be reused
+                        resetAbort();
+                        if (t.threadStatus != 0x0002) {
+                            // the abort interrupted die() before the thread was marked as terminated
+                            t.die();
+                        }
+                    }
+                    // Thread.stop() only aborts the .NET thread while holding t.lock and before die() has cleared
+                    // t.nativeThread, so no new abort requests can arrive from here on, but a request
+                    // that was made during die() may not have been raised yet
+                    resetAbort();
+                    // make sure the next Java thread doesn't see any of this thread's ThreadStatic based state
+                    IntrinsicThreadLocal.leavePooledThread();
+                    IndexedThreadLocal.clearCurrentThread();
+                    nativeThread.set_Priority(cli.System.Threading.ThreadPriority.wrap(cli.System.Threading.ThreadPriority.Normal));
+                    nativeThread.set_IsBackground(true);
+                    t = waitForTask();
+                }
+            }
+
+            private static void resetAbort() {
+                if ((cli.System.Threading.Thread.get_CurrentThread().get_ThreadState().Value & cli.System.Threading.ThreadState.AbortRequested) != 0) {
+                    cli.System.Threading.Thread.ResetAbort();
+                }
+            }
+
+            private Thread waitForTask() {
+                synchronized (this) {
+                    // clear the task before we become visible on the idle list, otherwise we could
+                    // overwrite a task that start() hands us right after we've been published
+                    task = null;
+                }
+                synchronized (lock) {
+                    if (idleCount >= maxIdle) {
+                        return null;
+                    }
+                    next = idle;
+                    idle = this;
+                    idleCount++;
+                }
+                synchronized (this) {
+                    while (task == null) {
+                        try {
+                            if (false) throw new cli.System.Threading.ThreadInterruptedException();
+                            // we can't use Object.wait() here, because there is no current Java thread
+                            if (!cli.System.Threading.Monitor.Wait(this, keepAlive) && task == null && removeIdle(this)) {
+                                return null;
+                            }
+                        }
+                        catch (cli.System.Threading.ThreadInterruptedException _) {
+                            // a stray .NET interrupt, ignore it
+                        }
+                    }
+                    return task;
+                }
+            }
+        }
+
+        private static boolean removeIdle(Worker w) {
+            synchronized (lock) {
+                Worker prev = null;
+                for (Worker p = idle; p != null; prev = p, p = p.next) {
+                    if (p == w) {
+                        if (prev == null) {
+                            idle = w.next;
+                        }
+                        else {
+                            prev.next = w.next;
+                        }
+                        w.next = null;
+                        idleCount--;
+                        return true;
+                    }
+                }
+                // somebody already took us off the idle list and is about to hand us a task
+                return false;
+            }
+        }
+
+        static void start(Thread t) {
+            Worker w;
+            synchronized (lock) {
+                w = idle;
+                if (w != null) {
+                    idle = w.next;
+                    w.next = null;
+                    idleCount--;
+                }
+            }
+            if (w == null) {
+                w = new Worker();
+                w.task = t;
+                t.nativeThread = w.nativeThread;
+                w.nativeThread.Start();
+            }
+            else {
+                t.nativeThread = w.nativeThread;
+                synchronized (w) {
+                    w.task = t;
+                    cli.System.Threading.Monitor.Pulse(w);
+                }
+            }
+        }
+    }
     /* --- start IKVM specific state --- */
     static final int[] nonDaemonCount = new int[1];
     @cli.System.ThreadStaticAttribute.Annotation
@@ -152,12 +316,10 @@ class Thread implements Runnable {
     private cli.System.Threading.Thread nativeThread;
     private Throwable stillborn;
     private boolean running;    // used only for coordination with stop0(), is never set to false
-    private boolean interruptPending;
-    private volatile boolean nativeInterruptPending;
-    private volatile boolean interruptableWait;
-    private boolean timedWait;
+    private volatile int interruptState; // INTERRUPT_* bits, updated with casInterruptState
     volatile Object parkLock;   // used by get/setParkLock in map.xml
     int parkState;              // used by cmpxchgParkState in map.xml
+    int parkSpins;              // used by get/setParkSpins in map.xml
     /* --- end IKVM specific state --- */
 
     private char        name[];
@@ -296,53 +458,64 @@ class Thread implements Runnable {
         cli.System.Threading.Thread.Sleep(0);
     }
     
+    // The interrupt state is a single word that is only modified with CAS, so that entering and
+    // leaving an interruptable wait doesn't need to take the lock.
+    // When the thread is in an interruptable wait, interrupt0() sets INTERRUPT_NATIVE_PENDING
+    // before calling Interrupt() on the .NET thread and INTERRUPT_NATIVE_POSTED after that call returned.
+    // leaveInterruptableWait() waits for the interrupt to be posted (a very short window) and then consumes it,
+    // to make sure we don't leave a stray .NET interrupt behind.
+    private static final int INTERRUPT_PENDING = 1;
+    private static final int INTERRUPT_WAIT = 2;
+    private static final int INTERRUPT_TIMED_WAIT = 4;
+    private static final int INTERRUPT_NATIVE_PENDING = 8;
+    private static final int INTERRUPT_NATIVE_POSTED = 16;
+
+    // implemented in map.xml
+    private native boolean casInterruptState(int expect, int update);
+
     private void enterInterruptableWait(boolean timedWait) throws InterruptedException {
-        synchronized (lock) {
-            if (interruptPending) {
-                interruptPending = false;
-                throw new InterruptedException();
+        for (; ; ) {
+            int state = interruptState;
+            if ((state & INTERRUPT_PENDING) != 0) {
+                if (casInterruptState(state, state & ~INTERRUPT_PENDING)) {
+                    throw new InterruptedException();
+                }
+            }
+            else if (casInterruptState(state, state | INTERRUPT_WAIT | (timedWait ? INTERRUPT_TIMED_WAIT : 0))) {
+                return;
             }
-            interruptableWait = true;
-            this.timedWait = timedWait;
         }
     }
     
     private void leaveInterruptableWait() throws InterruptedException {
-        cli.System.Threading.ThreadInterruptedException dotnetInterrupt = null;
-        interruptableWait = false;
+        int state;
         for (; ; ) {
-            try {
-                if (false) throw new cli.System.Threading.ThreadInterruptedException();
-                synchronized (lock) {
-                    if (nativeInterruptPending) {
-                        nativeInterruptPending = false;
-                        // HACK if there is a pending Interrupt (on the .NET thread), we need to consume that
-                        // (if there was no contention on "lock (this)" above the interrupted state isn't checked) 
-                        try {
-                            if (false) throw new cli.System.Threading.ThreadInterruptedException();
-                            cli.System.Threading.Thread t = cli.System.Threading.Thread.get_CurrentThread();
-                            // the obvious thing to do would be t.Interrupt() / t.Join(),
-                            // but for some reason that causes a regression in JSR166TestCase (probably a CLR bug)
-                            // so we waste a time slice... sigh.
-                            t.Join(1);
-                        }
-                        catch (cli.System.Threading.ThreadInterruptedException _) {
-                        }
-                    }
-                    if (interruptPending) {
-                        interruptPending = false;
-                        throw new InterruptedException();
-                    }
-                }
-                break;
+            state = interruptState;
+            if ((state & (INTERRUPT_NATIVE_PENDING | INTERRUPT_NATIVE_POSTED)) == INTERRUPT_NATIVE_PENDING) {
+                // the interrupting thread is between setting the flag and calling Interrupt()
+                consumeNativeInterrupt();
             }
-            catch (cli.System.Threading.ThreadInterruptedException x) {
-                dotnetInterrupt = x;
-                nativeInterruptPending = false;
+            else if (casInterruptState(state, state & ~(INTERRUPT_PENDING | INTERRUPT_WAIT | INTERRUPT_TIMED_WAIT | INTERRUPT_NATIVE_PENDING | INTERRUPT_NATIVE_POSTED))) {
+                break;
             }
         }
-        if (dotnetInterrupt != null) {
-            ikvm.runtime.Util.throwException(dotnetInterrupt);
+        if ((state & INTERRUPT_NATIVE_PENDING) != 0) {
+            // if the wait wasn't actually interrupted by the .NET interrupt, it is still pending and we need to consume it
+            consumeNativeInterrupt();
+        }
+        if ((state & INTERRUPT_PENDING) != 0) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void consumeNativeInterrupt() {
+        // Thread.Sleep(0) throws immediately if there is a pending interrupt, otherwise it only gives up the rest of the time slice
+        // (we used to do a Join(1) here, which always wasted a time slice)
+        try {
+            if (false) throw new cli.System.Threading.ThreadInterruptedException();
+            cli.System.Threading.Thread.Sleep(0);
+        }
+        catch (cli.System.Threading.ThreadInterruptedException _) {
         }
     }
 
@@ -791,6 +964,14 @@ class Thread implements Runnable {
     }
 
     private void start0() {
+        if (stackSize <= 0 && NativeThreadPool.maxIdle > 0) {
+            threadStatus = 0x0005; // JVMTI_THREAD_STATE_ALIVE + JVMTI_THREAD_STATE_RUNNABLE
+            if (!daemon) {
+                cli.System.Threading.Interlocked.Increment(nonDaemonCount);
+            }
+            NativeThreadPool.start(this);
+            return;
+        }
         cli.System.Threading.ThreadStart threadStart = new cli.System.Threading.ThreadStart(new cli.System.Threading.ThreadStart.Method() {
             public void Invoke() {
                 threadProc();
@@ -1148,12 +1329,14 @@ class Thread implements Runnable {
      * passed.
      */
     private boolean isInterrupted(boolean ClearInterrupted) {
-        synchronized (lock) {
-            boolean b = interruptPending;
-            if (ClearInterrupted) {
-                interruptPending = false;
+        for (; ; ) {
+            int state = interruptState;
+            if ((state & INTERRUPT_PENDING) == 0) {
+                return false;
+            }
+            if (!ClearInterrupted || casInterruptState(state, state & ~INTERRUPT_PENDING)) {
+                return true;
             }
-            return b;
         }
     }
 
@@ -1854,6 +2037,9 @@ class Thread implements Runnable {
     private static StackTraceElement[][] dumpThreads(Thread[] threads) {
         StackTraceElement[][] stacks = new StackTraceElement[threads.length][];
         for (int i = 0; i < threads.length; i++) {
+            // we hold the thread's lock while we suspend it, because with thread pooling
+            // the .NET thread can be reused for another Java thread after die()
+            synchronized (threads[i].lock) {
             cli.System.Threading.Thread nativeThread = threads[i].nativeThread;
             if (nativeThread == null) {
                 stacks[i] = new StackTraceElement[0];
@@ -1880,6 +2066,7 @@ class Thread implements Runnable {
                     stacks[i] = new StackTraceElement[0];
                 }
             }
+            }
         }
         return stacks;
     }
@@ -2029,18 +2216,23 @@ class Thread implements Runnable {
             case 0x0002:
                 return State.TERMINATED;
         }
+        int state = interruptState;
+        if ((state & INTERRUPT_WAIT) != 0) {
+            // NOTE if objectWait has satisfied the wait condition (or has been interrupted or has timed-out),
+            // it can be blocking on the re-acquire of the monitor, but we have no way of detecting that.
+            return (state & INTERRUPT_TIMED_WAIT) != 0 ? State.TIMED_WAITING : State.WAITING;
+        }
+        int nativeState;
         synchronized (lock) {
-            if (interruptableWait) {
-                // NOTE if objectWait has satisfied the wait condition (or has been interrupted or has timed-out),
-                // it can be blocking on the re-acquire of the monitor, but we have no way of detecting that.
-                return timedWait ? State.TIMED_WAITING : State.WAITING;
+            // with thread pooling the .NET thread is reused after die() has cleared nativeThread,
+            // so we have to look at it while holding lock
+            cli.System.Threading.Thread nativeThread = this.nativeThread;
+            if (nativeThread == null) {
+                return State.TERMINATED;
             }
+            nativeState = nativeThread.get_ThreadState().Value;
         }
-        cli.System.Threading.Thread nativeThread = this.nativeThread;
-        if (nativeThread == null) {
-            return State.TERMINATED;
-        }
-        if ((nativeThread.get_ThreadState().Value & cli.System.Threading.ThreadState.WaitSleepJoin) != 0) {
+        if ((nativeState & cli.System.Threading.ThreadState.WaitSleepJoin) != 0) {
             return State.BLOCKED;
         }
         return State.RUNNABLE;
@@ -2186,14 +2378,16 @@ class Thread implements Runnable {
     }
 
     /* Some private helper methods */
-    private synchronized void setPriority0(int newPriority) {
-        cli.System.Threading.Thread nativeThread = this.nativeThread;
-        if (nativeThread != null) {
-            try {
-                if (false) throw new cli.System.Threading.ThreadStateException();
-                nativeThread.set_Priority(cli.System.Threading.ThreadPriority.wrap(mapJavaPriorityToClr(newPriority)));
-            }
-            catch (cli.System.Threading.ThreadStateException _) {
+    private void setPriority0(int newPriority) {
+        synchronized (lock) {
+            cli.System.Threading.Thread nativeThread = this.nativeThread;
+            if (nativeThread != null) {
+                try {
+                    if (false) throw new cli.System.Threading.ThreadStateException();
+                    nativeThread.set_Priority(cli.System.Threading.ThreadPriority.wrap(mapJavaPriorityToClr(newPriority)));
+                }
+                catch (cli.System.Threading.ThreadStateException _) {
+                }
             }
         }
     }
@@ -2214,6 +2408,9 @@ class Thread implements Runnable {
                 sun.misc.Unsafe.getUnsafe().throwException(x);
             }
             else if (x instanceof ThreadDeath) {
+                // we hold lock while we abort the .NET thread, because with thread pooling
+                // it is reused for another Java thread after die() has cleared nativeThread
+                synchronized (lock) {
                 cli.System.Threading.Thread nativeThread = this.nativeThread;
                 if (nativeThread == null) {
                     return;
@@ -2235,6 +2432,7 @@ class Thread implements Runnable {
                 }
                 catch (cli.System.Threading.ThreadStateException _) {
                 }
+                }
             }
         }
         else {
@@ -2243,42 +2441,72 @@ class Thread implements Runnable {
     }
 
     private void suspend0() {
-        try {
-            if (false) throw new cli.System.Threading.ThreadStateException();
-            cli.System.Threading.Thread nativeThread = this.nativeThread;
-            if (nativeThread != null) {
+        if (this == current) {
+            // we can't hold lock while we suspend ourself (resume0() needs it)
+            // but our own .NET thread can't be reused while we're running anyway
+            try {
+                if (false) throw new cli.System.Threading.ThreadStateException();
                 nativeThread.Suspend();
             }
+            catch (cli.System.Threading.ThreadStateException _) {
+            }
+            return;
         }
-        catch (cli.System.Threading.ThreadStateException _) {
+        synchronized (lock) {
+            try {
+                if (false) throw new cli.System.Threading.ThreadStateException();
+                cli.System.Threading.Thread nativeThread = this.nativeThread;
+                if (nativeThread != null) {
+                    nativeThread.Suspend();
+                }
+            }
+            catch (cli.System.Threading.ThreadStateException _) {
+            }
         }
     }
 
     private void resume0() {
-        try {
-            if (false) throw new cli.System.Threading.ThreadStateException();
-            cli.System.Threading.Thread nativeThread = this.nativeThread;
-            if (nativeThread != null) {
-                nativeThread.Resume();
+        synchronized (lock) {
+            try {
+                if (false) throw new cli.System.Threading.ThreadStateException();
+                cli.System.Threading.Thread nativeThread = this.nativeThread;
+                if (nativeThread != null) {
+                    nativeThread.Resume();
+                }
+            }
+            catch (cli.System.Threading.ThreadStateException _) {
             }
-        }
-        catch (cli.System.Threading.ThreadStateException _) {
         }
     }
 
     private void interrupt0() {
-        synchronized (lock) {
-            // if the thread hasn't been started yet or has been terminated, the interrupt is ignored
-            // (like on the reference implementation)
-            if (nativeThread == null) {
+        // if the thread hasn't been started yet or has been terminated, the interrupt is ignored
+        // (like on the reference implementation)
+        cli.System.Threading.Thread nativeThread = this.nativeThread;
+        if (nativeThread == null) {
+            return;
+        }
+        for (; ; ) {
+            int state = interruptState;
+            if ((state & INTERRUPT_PENDING) != 0) {
                 return;
             }
-            if (!interruptPending) {
-                interruptPending = true;
-                if (interruptableWait) {
-                    nativeInterruptPending = true;
+            if ((state & INTERRUPT_WAIT) == 0) {
+                if (casInterruptState(state, state | INTERRUPT_PENDING)) {
+                    return;
+                }
+            }
+            else if (casInterruptState(state, state | INTERRUPT_PENDING | INTERRUPT_NATIVE_PENDING)) {
+                try {
                     nativeThread.Interrupt();
                 }
+                finally {
+                    // let leaveInterruptableWait know that it can now safely consume the .NET interrupt
+                    do {
+                        state = interruptState;
+                    } while (!casInterruptState(state, state | INTERRUPT_NATIVE_POSTED));
+                }
+                return;
             }
         }
     }
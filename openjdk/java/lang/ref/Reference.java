@@ -1,5 +1,5 @@
 /*
-  Copyright (C) 2003, 2004, 2005, 2006, 2007 Jeroen Frijters
+  Copyright (C) 2003-2010 Jeroen Frijters
 
   This software is provided 'as-is', without any express or implied
   warranty.  In no event will the authors be held liable for any damages
@@ -24,6 +24,8 @@
 package java.lang.ref;
 
 import sun.misc.Cleaner;
+import sun.misc.JavaLangRefAccess;
+import sun.misc.SharedSecrets;
 
 public abstract class Reference<T>
 {
@@ -32,6 +34,18 @@ public abstract class Reference<T>
     volatile T strongRef;
     volatile ReferenceQueue<? super T> queue;
     volatile Reference next;
+    // used by ReferenceProcessor to link references that are waiting to be picked up
+    Reference processorNext;
+
+    static
+    {
+        SharedSecrets.setJavaLangRefAccess(new JavaLangRefAccess() {
+            public boolean awaitReferenceProcessing(long timeout)
+            {
+                return ReferenceProcessor.awaitProcessing(timeout);
+            }
+        });
+    }
 
     Reference(T referent)
     {
@@ -53,82 +67,8 @@ public abstract class Reference<T>
                 weakRef = new cli.System.WeakReference(referent, this instanceof PhantomReference);
                 if (queue != null || referent instanceof Cleaner || this instanceof SoftReference)
                 {
-                    new QueueWatcher(this);
-                }
-            }
-        }
-    }
-
-    private static final boolean debug = false;
-
-    private static final class QueueWatcher
-    {
-        private static final java.util.Set keepAlive = java.util.Collections.synchronizedSet(new java.util.HashSet());
-        private cli.System.WeakReference handle;
-
-        QueueWatcher(Reference r)
-        {
-            handle = new cli.System.WeakReference(r, true);
-            // FXBUG when a WeakReference is finalizer reachable, it gets cleared by the GC (even if we call GC.SuppressFinalize),
-            // so we have to maintain a strong reference to it to prevent it from being cleared.
-            keepAlive.add(handle);
-        }
-
-        boolean check(Reference r)
-        {
-            r.strongRef = null;
-            boolean alive = false;
-            try
-            {
-                if (false) throw new cli.System.InvalidOperationException();
-                cli.System.WeakReference referent = r.weakRef;
-                if (referent == null)
-                {
-                    // ref was explicitly cleared, so we don't enqueue
-                    return false;
-                }
-                alive = referent.get_IsAlive();
-            }
-            catch (cli.System.InvalidOperationException x)
-            {
-                // this happens if the reference is already finalized (if we were
-                // the only one still hanging on to it)
-            }
-            if (alive)
-            {
-                // we don't want to keep creating finalizable objects during shutdown
-                if (!cli.System.Environment.get_HasShutdownStarted())
-                {
-                    return true;
-                }
-            }
-            else
-            {
-                if (r instanceof Cleaner)
-                {
-                    ((Cleaner)r).clean();
+                    ReferenceProcessor.register(this);
                 }
-                else if (r.queue != null)
-                {
-                    r.queue.enqueue(r);
-                }
-            }
-            return false;
-        }
-
-        protected void finalize()
-        {
-            Reference r = (Reference)handle.get_Target();
-            if (debug)
-                cli.System.Console.WriteLine("~QueueWatcher: " + hashCode() + " on " + r);
-            if (r != null && r.next == null && check(r))
-            {
-                cli.System.GC.ReRegisterForFinalize(QueueWatcher.this);
-            }
-            else
-            {
-                handle.set_Target(null);
-                keepAlive.remove(handle);
             }
         }
     }
@@ -0,0 +1,417 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package java.lang.ref;
+
+import java.security.AccessController;
+import sun.misc.Cleaner;
+import sun.security.action.GetIntegerAction;
+
+// This class replaces the per-Reference finalizable QueueWatcher.
+// References that need processing (because they have a queue, are a Cleaner or are a SoftReference)
+// are pushed on a lock-free stack. A single background thread moves them into its private table
+// (as weak GC handles, so that the Reference object itself can still be collected) and after every GC
+// it scans that table in chunks, to clear SoftReference strong references and to enqueue (or clean)
+// the references whose referent has been collected.
+// GCs are detected by comparing GC.CollectionCount(0) and by a single finalizable sentinel object
+// that wakes up the processor thread when it is finalized.
+// SoftReferences are cleared using an LRU policy (like HotSpot's LRUCurrentHeapPolicy): after every GC
+// SoftReference.clock is advanced and a SoftReference that hasn't been accessed for more than
+// (free heap in MB * ikvm.softref.mspermb) milliseconds loses its strong reference, after which it behaves
+// like a WeakReference. The free heap is estimated as ikvm.softref.heaplimit (in MB) minus GC.GetTotalMemory().
+// When ikvm.softref.heaplimit isn't set, the limit defaults to a quarter of the physical memory (like HotSpot's
+// default maximum heap size), capped at 1024 MB on 32 bit, or to a conservative 256 MB if the physical memory is unknown
+// (it is only queried on Windows, with GetPhysicallyInstalledSystemMemory).
+// Cleaners (that free the native memory of direct buffers and unmap mapped buffers) are not run by the processor
+// thread itself, but handed off to a separate "Cleaner" thread, so that a slow unmap doesn't delay the scans.
+// Code that needs native memory released now (java.nio.Bits, when the direct memory limit is reached) can use
+// awaitProcessing() (via sun.misc.JavaLangRefAccess) to force a scan and wait for the resulting Cleaners to run.
+final class ReferenceProcessor
+{
+    private static final int CHUNK_SIZE = 4096;
+    private static final int POLL_INTERVAL = 1000;
+    private static final ReferenceProcessor instance = new ReferenceProcessor();
+
+    // lock-free stack of Reference objects (linked via Reference.processorNext) that haven't been picked up yet
+    private volatile Object pending;
+    private final Object wakeup = new Object();
+    private boolean signaled;           // protected by wakeup
+    private int requestedTicket;        // protected by wakeup
+    // queue of Cleaners (linked via Reference.processorNext) for the cleaner thread
+    private final Object cleanerLock = new Object();
+    private Reference cleanerHead;      // protected by cleanerLock
+    private Reference cleanerTail;      // protected by cleanerLock
+    private int postedTicket;           // protected by cleanerLock
+    private int completedTicket;        // protected by cleanerLock
+    // the following fields are only accessed by the processor thread
+    private long[] handles = new long[1024];
+    private int count;
+    private int lastGen0Count;
+    private long msPerMB = -1;
+    private long heapLimit;
+    private int scannedTicket;
+    private Reference batchHead;
+    private Reference batchTail;
+
+    private ReferenceProcessor()
+    {
+    }
+
+    static
+    {
+        cli.System.Threading.Thread thread = new cli.System.Threading.Thread(new cli.System.Threading.ThreadStart(new cli.System.Threading.ThreadStart.Method() {
+            public void Invoke()
+            {
+                instance.run();
+            }
+        }));
+        thread.set_Name("Reference Handler");
+        thread.set_IsBackground(true);
+        thread.Start();
+        cli.System.Threading.Thread cleaner = new cli.System.Threading.Thread(new cli.System.Threading.ThreadStart(new cli.System.Threading.ThreadStart.Method() {
+            public void Invoke()
+            {
+                instance.runCleaners();
+            }
+        }));
+        cleaner.set_Name("Cleaner");
+        cleaner.set_IsBackground(true);
+        cleaner.Start();
+        new GCNotifier();
+    }
+
+    // A new GCNotifier is allocated every time the previous one is finalized,
+    // so that there is always exactly one in generation 0 to tell us that a GC happened.
+    private static final class GCNotifier
+    {
+        protected void finalize()
+        {
+            if (!cli.System.Environment.get_HasShutdownStarted())
+            {
+                instance.signal();
+                new GCNotifier();
+            }
+        }
+    }
+
+    static void register(Reference r)
+    {
+        ReferenceProcessor p = instance;
+        Object head;
+        do
+        {
+            head = p.pending;
+            r.processorNext = (Reference)head;
+        } while (!p.casPending(head, r));
+    }
+
+    // implemented in map.xml
+    private native boolean casPending(Object cmp, Object val);
+
+    private static native long allocHandle(Object obj);
+    private static native Object getTarget(long handle);
+    private static native void freeHandle(long handle);
+
+    private void signal()
+    {
+        synchronized (wakeup)
+        {
+            signaled = true;
+            cli.System.Threading.Monitor.Pulse(wakeup);
+        }
+    }
+
+    // Forces a scan and waits (for at most timeout milliseconds) until the Cleaners it found have run.
+    // Returns false if the timeout expired.
+    static boolean awaitProcessing(long timeout)
+    {
+        ReferenceProcessor p = instance;
+        int ticket;
+        synchronized (p.wakeup)
+        {
+            ticket = ++p.requestedTicket;
+            p.signaled = true;
+            cli.System.Threading.Monitor.Pulse(p.wakeup);
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (p.cleanerLock)
+        {
+            while (p.completedTicket - ticket < 0)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return false;
+                }
+                cli.System.Threading.Monitor.Wait(p.cleanerLock, (int)Math.min(remaining, Integer.MAX_VALUE));
+            }
+        }
+        return true;
+    }
+
+    private void run()
+    {
+        for (; ; )
+        {
+            int ticket;
+            synchronized (wakeup)
+            {
+                if (!signaled)
+                {
+                    // we can't use Object.wait(), because this isn't a Java thread
+                    cli.System.Threading.Monitor.Wait(wakeup, POLL_INTERVAL);
+                }
+                signaled = false;
+                ticket = requestedTicket;
+            }
+            drainPending();
+            int gen0 = cli.System.GC.CollectionCount(0);
+            if (gen0 != lastGen0Count || ticket != scannedTicket)
+            {
+                lastGen0Count = gen0;
+                scannedTicket = ticket;
+                scan();
+                postCleaners(ticket);
+            }
+        }
+    }
+
+    private void postCleaners(int ticket)
+    {
+        synchronized (cleanerLock)
+        {
+            if (batchHead != null)
+            {
+                if (cleanerTail == null)
+                {
+                    cleanerHead = batchHead;
+                }
+                else
+                {
+                    cleanerTail.processorNext = batchHead;
+                }
+                cleanerTail = batchTail;
+                batchHead = batchTail = null;
+            }
+            postedTicket = ticket;
+            cli.System.Threading.Monitor.PulseAll(cleanerLock);
+        }
+    }
+
+    private void runCleaners()
+    {
+        for (; ; )
+        {
+            Reference head;
+            int ticket;
+            synchronized (cleanerLock)
+            {
+                while (cleanerHead == null && postedTicket == completedTicket)
+                {
+                    cli.System.Threading.Monitor.Wait(cleanerLock);
+                }
+                head = cleanerHead;
+                cleanerHead = cleanerTail = null;
+                ticket = postedTicket;
+            }
+            for (Reference r = head; r != null; )
+            {
+                Reference next = r.processorNext;
+                r.processorNext = null;
+                try
+                {
+                    ((Cleaner)r).clean();
+                }
+                catch (Throwable _)
+                {
+                    // don't let a misbehaving Cleaner kill the cleaner thread
+                }
+                r = next;
+            }
+            synchronized (cleanerLock)
+            {
+                completedTicket = ticket;
+                cli.System.Threading.Monitor.PulseAll(cleanerLock);
+            }
+        }
+    }
+
+    private void drainPending()
+    {
+        Object head;
+        do
+        {
+            head = pending;
+        } while (head != null && !casPending(head, null));
+        for (Reference r = (Reference)head; r != null; )
+        {
+            Reference next = r.processorNext;
+            r.processorNext = null;
+            if (count == handles.length)
+            {
+                long[] newHandles = new long[count * 2];
+                System.arraycopy(handles, 0, newHandles, 0, count);
+                handles = newHandles;
+            }
+            handles[count++] = allocHandle(r);
+            r = next;
+        }
+    }
+
+    private void initSoftReferencePolicy()
+    {
+        // we read the properties lazily on the processor thread, because we may be initialized very early
+        msPerMB = AccessController.doPrivileged(new GetIntegerAction("ikvm.softref.mspermb", 1000)).intValue();
+        // the CLR doesn't have a maximum heap size, so if the limit isn't specified we derive it from the physical memory
+        int limit = AccessController.doPrivileged(new GetIntegerAction("ikvm.softref.heaplimit", 0)).intValue();
+        if (limit <= 0)
+        {
+            long physicalMB = getTotalPhysicalMemory() >> 20;
+            limit = physicalMB <= 0 ? 256 : (int)Math.min(physicalMB / 4, cli.System.IntPtr.get_Size() == 4 ? 1024 : Integer.MAX_VALUE);
+        }
+        heapLimit = (long)limit << 20;
+    }
+
+    // returns the total physical memory in bytes or -1 if it can't be determined
+    @cli.System.Security.SecuritySafeCriticalAttribute.Annotation
+    private static long getTotalPhysicalMemory()
+    {
+        if (ikvm.internal.Util.WINDOWS)
+        {
+            try
+            {
+                long[] kilobytes = new long[1];
+                if (GetPhysicallyInstalledSystemMemory(kilobytes))
+                {
+                    return kilobytes[0] << 10;
+                }
+            }
+            catch (Throwable _)
+            {
+                // the function is only available on Vista SP1 and later
+            }
+        }
+        return -1;
+    }
+
+    @cli.System.Runtime.InteropServices.DllImportAttribute.Annotation("kernel32")
+    private static native boolean GetPhysicallyInstalledSystemMemory(long[] totalMemoryInKilobytes);
+
+    private void scan()
+    {
+        if (msPerMB < 0)
+        {
+            initSoftReferencePolicy();
+        }
+        long clock = System.currentTimeMillis();
+        SoftReference.clock = clock;
+        long freeMB = Math.max(0, heapLimit - cli.System.GC.GetTotalMemory(false)) >> 20;
+        long softInterval = freeMB * msPerMB;
+        long[] handles = this.handles;
+        int count = this.count;
+        int live = 0;
+        for (int i = 0; i < count; i++)
+        {
+            long handle = handles[i];
+            Reference r = (Reference)getTarget(handle);
+            if (r != null && check(r, clock, softInterval))
+            {
+                handles[live++] = handle;
+            }
+            else
+            {
+                freeHandle(handle);
+            }
+            if ((i + 1) % CHUNK_SIZE == 0)
+            {
+                // give other threads (and the registration stack) a chance between chunks
+                cli.System.Threading.Thread.Sleep(0);
+            }
+        }
+        for (int i = live; i < count; i++)
+        {
+            handles[i] = 0;
+        }
+        this.count = live;
+    }
+
+    // returns true if the reference should stay registered
+    private boolean check(Reference r, long clock, long softInterval)
+    {
+        if (r.next != null)
+        {
+            // already enqueued
+            return false;
+        }
+        if (r instanceof SoftReference && r.strongRef != null && clock - ((SoftReference)r).timestamp > softInterval)
+        {
+            r.strongRef = null;
+        }
+        cli.System.WeakReference referent = r.weakRef;
+        if (referent == null)
+        {
+            // ref was explicitly cleared, so we don't enqueue
+            return false;
+        }
+        boolean alive = false;
+        try
+        {
+            if (false) throw new cli.System.InvalidOperationException();
+            alive = referent.get_IsAlive();
+        }
+        catch (cli.System.InvalidOperationException x)
+        {
+            // this happens if the reference is already finalized (if we were
+            // the only one still hanging on to it)
+        }
+        if (alive)
+        {
+            return true;
+        }
+        try
+        {
+            if (r instanceof Cleaner)
+            {
+                // the cleaner thread will run it
+                if (batchTail == null)
+                {
+                    batchHead = r;
+                }
+                else
+                {
+                    batchTail.processorNext = r;
+                }
+                batchTail = r;
+            }
+            else if (r.queue != null)
+            {
+                r.queue.enqueue(r);
+            }
+        }
+        catch (Throwable _)
+        {
+            // don't let a misbehaving ReferenceQueue kill the processor thread
+        }
+        return false;
+    }
+}
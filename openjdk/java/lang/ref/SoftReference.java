@@ -64,14 +64,16 @@ package java.lang.ref;
 public class SoftReference<T> extends Reference<T> {
 
     /* Timestamp clock, updated by the garbage collector
+     * [IKVM] updated by ReferenceProcessor after every GC
      */
-    static private long clock;
+    static long clock = System.currentTimeMillis();
 
     /* Timestamp updated by each invocation of the get method.  The VM may use
      * this field when selecting soft references to be cleared, but it is not
      * required to do so.
+     * [IKVM] used by ReferenceProcessor to implement the LRU clearing policy
      */
-    private long timestamp;
+    long timestamp;
 
     /**
      * Creates a new soft reference that refers to the given object.  The new
@@ -82,6 +84,7 @@ public class SoftReference<T> extends Reference<T> {
     public SoftReference(T referent) {
         super(referent);
         strongRef = referent;
+        this.timestamp = clock;
     }
 
     /**
@@ -96,6 +99,7 @@ public class SoftReference<T> extends Reference<T> {
     public SoftReference(T referent, ReferenceQueue<? super T> q) {
         super(referent, q);
         strongRef = referent;
+        this.timestamp = clock;
     }
 
     /**
@@ -109,6 +113,8 @@ public class SoftReference<T> extends Reference<T> {
     public T get() {
         T o = super.get();
         strongRef = o;
+        if (o != null && this.timestamp != clock)
+            this.timestamp = clock;
         return o;
     }
 
@@ -27,7 +27,10 @@ package java.nio;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.atomic.LongAdder;
+import ikvm.runtime.DirectMemoryStatistics;
 import sun.misc.Unsafe;
+import sun.misc.SharedSecrets;
 import sun.misc.VM;
 
 /**
@@ -654,7 +657,9 @@ class Bits {                            // package-private
     // direct buffer memory.  This value may be changed during VM
     // initialization if it is launched with "-XX:MaxDirectMemorySize=<size>".
     private static volatile long maxMemory = VM.maxDirectMemory();
-    private static volatile long reservedMemory = 0;
+    // [IKVM] the reserved memory is tracked in a LongAdder (shared with ikvm.runtime.DirectMemoryStatistics),
+    // so that reserving and unreserving memory doesn't need to synchronize on Bits.class
+    private static final LongAdder reservedMemory = DirectMemoryStatistics.reservedMemory;
     private static boolean memoryLimitSet = false;
 
     // These methods should be called whenever direct memory is allocated or
@@ -662,37 +667,55 @@ class Bits {                            // package-private
     // which a process may access.  All sizes are specified in bytes.
     static void reserveMemory(long size) {
 
-        synchronized (Bits.class) {
-            if (!memoryLimitSet && VM.isBooted()) {
-                maxMemory = VM.maxDirectMemory();
-                memoryLimitSet = true;
-            }
-            if (size <= maxMemory - reservedMemory) {
-                reservedMemory += size;
-                return;
-            }
+        if (!memoryLimitSet && VM.isBooted()) {
+            maxMemory = VM.maxDirectMemory();
+            memoryLimitSet = true;
+        }
+        if (tryReserveMemory(size)) {
+            return;
         }
 
+        // [IKVM] after the GC we wait for the reference processor to run the Cleaners of the
+        // collected buffers and, instead of sleeping for a fixed 100ms, we retry with exponential backoff
         System.gc();
+        SharedSecrets.getJavaLangRefAccess().awaitReferenceProcessing(1000);
+        boolean interrupted = false;
         try {
-            Thread.sleep(100);
-        } catch (InterruptedException x) {
-            // Restore interrupt status
-            Thread.currentThread().interrupt();
-        }
-        synchronized (Bits.class) {
-            if (reservedMemory + size > maxMemory)
+            for (int sleep = 1; sleep <= 128; sleep <<= 1) {
+                if (tryReserveMemory(size)) {
+                    return;
+                }
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException x) {
+                    interrupted = true;
+                }
+            }
+            if (!tryReserveMemory(size))
                 throw new OutOfMemoryError("Direct buffer memory");
-            reservedMemory += size;
+        } finally {
+            if (interrupted) {
+                // Restore interrupt status
+                Thread.currentThread().interrupt();
+            }
         }
 
     }
 
-    static synchronized void unreserveMemory(long size) {
-        if (reservedMemory > 0) {
-            reservedMemory -= size;
-            assert (reservedMemory > -1);
+    // [IKVM] optimistically add the size and back out if that exceeds the limit
+    // (concurrent reservations may make us fail spuriously, but they can't exceed the limit)
+    private static boolean tryReserveMemory(long size) {
+        reservedMemory.add(size);
+        long max = maxMemory;
+        if (max == Long.MAX_VALUE || reservedMemory.sum() <= max) {
+            return true;
         }
+        reservedMemory.add(-size);
+        return false;
+    }
+
+    static void unreserveMemory(long size) {
+        reservedMemory.add(-size);
     }
 
 
@@ -37,6 +37,7 @@ package java.util.concurrent.locks;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import ikvm.runtime.SynchronizerStatistics;
 
 /**
  * Provides a framework for implementing blocking locks and related
@@ -295,6 +296,22 @@ public abstract class AbstractQueuedSynchronizer
 
     private static final long serialVersionUID = 7373984972572414691L;
 
+    /**
+     * IKVM specific. Contention instrumentation (see ikvm.runtime.SynchronizerStatistics).
+     * This is a static final, so the checks cost nothing when it is disabled.
+     */
+    static final boolean INSTRUMENTED = SynchronizerStatistics.ENABLED;
+
+    /**
+     * IKVM specific. The number of nodes in the queue, only maintained when
+     * INSTRUMENTED.  It is incremented when a node is enqueued and decremented
+     * when it becomes the head or is cancelled, so that we don't have to walk
+     * the queue to record its length.
+     */
+    private transient volatile int queueLength;
+    private static final AtomicIntegerFieldUpdater<AbstractQueuedSynchronizer> queueLengthUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(AbstractQueuedSynchronizer.class, "queueLength");
+
     /**
      * Creates a new <tt>AbstractQueuedSynchronizer</tt> instance
      * with initial synchronization state of zero.
@@ -591,6 +608,8 @@ public abstract class AbstractQueuedSynchronizer
                 node.prev = t;
                 if (compareAndSetTail(t, node)) {
                     t.next = node;
+                    if (INSTRUMENTED)
+                        queueLengthUpdater.incrementAndGet(this);
                     return t;
                 }
             }
@@ -611,10 +630,14 @@ public abstract class AbstractQueuedSynchronizer
             node.prev = pred;
             if (compareAndSetTail(pred, node)) {
                 pred.next = node;
+                if (INSTRUMENTED)
+                    SynchronizerStatistics.contendedAcquire(this, queueLengthUpdater.incrementAndGet(this));
                 return node;
             }
         }
         enq(node);
+        if (INSTRUMENTED)
+            SynchronizerStatistics.contendedAcquire(this, queueLength);
         return node;
     }
 
@@ -629,6 +652,8 @@ public abstract class AbstractQueuedSynchronizer
         head = node;
         node.thread = null;
         node.prev = null;
+        if (INSTRUMENTED)
+            queueLengthUpdater.decrementAndGet(this);
     }
 
     /**
@@ -743,6 +768,9 @@ public abstract class AbstractQueuedSynchronizer
         if (node == null)
             return;
 
+        if (INSTRUMENTED)
+            queueLengthUpdater.decrementAndGet(this);
+
         node.thread = null;
 
         // Skip cancelled predecessors
@@ -832,10 +860,29 @@ public abstract class AbstractQueuedSynchronizer
      * @return {@code true} if interrupted
      */
     private final boolean parkAndCheckInterrupt() {
-        LockSupport.park(this);
+        if (INSTRUMENTED) {
+            long start = System.nanoTime();
+            LockSupport.park(this);
+            SynchronizerStatistics.parked(this, System.nanoTime() - start);
+        } else {
+            LockSupport.park(this);
+        }
         return Thread.interrupted();
     }
 
+    /**
+     * Convenience method to park for the given time (used by the timed acquires)
+     */
+    private final void parkNanos(long nanosTimeout) {
+        if (INSTRUMENTED) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(this, nanosTimeout);
+            SynchronizerStatistics.parked(this, System.nanoTime() - start);
+        } else {
+            LockSupport.parkNanos(this, nanosTimeout);
+        }
+    }
+
     /*
      * Various flavors of acquire, varying in exclusive/shared and
      * control modes.  Each is mostly the same, but annoyingly
@@ -927,7 +974,7 @@ public abstract class AbstractQueuedSynchronizer
                     return false;
                 if (shouldParkAfterFailedAcquire(p, node) &&
                     nanosTimeout > spinForTimeoutThreshold)
-                    LockSupport.parkNanos(this, nanosTimeout);
+                    parkNanos(nanosTimeout);
                 long now = System.nanoTime();
                 nanosTimeout -= now - lastTime;
                 lastTime = now;
@@ -1031,7 +1078,7 @@ public abstract class AbstractQueuedSynchronizer
                     return false;
                 if (shouldParkAfterFailedAcquire(p, node) &&
                     nanosTimeout > spinForTimeoutThreshold)
-                    LockSupport.parkNanos(this, nanosTimeout);
+                    parkNanos(nanosTimeout);
                 long now = System.nanoTime();
                 nanosTimeout -= now - lastTime;
                 lastTime = now;
@@ -1195,6 +1242,8 @@ public abstract class AbstractQueuedSynchronizer
      *        can represent anything you like.
      */
     public final void acquire(int arg) {
+        if (INSTRUMENTED)
+            SynchronizerStatistics.acquire(this);
         if (!tryAcquire(arg) &&
             acquireQueued(addWaiter(Node.EXCLUSIVE), arg))
             selfInterrupt();
@@ -1217,6 +1266,8 @@ public abstract class AbstractQueuedSynchronizer
     public final void acquireInterruptibly(int arg) throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
+        if (INSTRUMENTED)
+            SynchronizerStatistics.acquire(this);
         if (!tryAcquire(arg))
             doAcquireInterruptibly(arg);
     }
@@ -1241,6 +1292,8 @@ public abstract class AbstractQueuedSynchronizer
     public final boolean tryAcquireNanos(int arg, long nanosTimeout) throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
+        if (INSTRUMENTED)
+            SynchronizerStatistics.acquire(this);
         return tryAcquire(arg) ||
             doAcquireNanos(arg, nanosTimeout);
     }
@@ -1277,6 +1330,8 @@ public abstract class AbstractQueuedSynchronizer
      *        and can represent anything you like.
      */
     public final void acquireShared(int arg) {
+        if (INSTRUMENTED)
+            SynchronizerStatistics.acquire(this);
         if (tryAcquireShared(arg) < 0)
             doAcquireShared(arg);
     }
@@ -1297,6 +1352,8 @@ public abstract class AbstractQueuedSynchronizer
     public final void acquireSharedInterruptibly(int arg) throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
+        if (INSTRUMENTED)
+            SynchronizerStatistics.acquire(this);
         if (tryAcquireShared(arg) < 0)
             doAcquireSharedInterruptibly(arg);
     }
@@ -1320,6 +1377,8 @@ public abstract class AbstractQueuedSynchronizer
     public final boolean tryAcquireSharedNanos(int arg, long nanosTimeout) throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
+        if (INSTRUMENTED)
+            SynchronizerStatistics.acquire(this);
         return tryAcquireShared(arg) >= 0 ||
             doAcquireSharedNanos(arg, nanosTimeout);
     }
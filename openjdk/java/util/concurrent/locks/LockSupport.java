@@ -35,6 +35,9 @@
 
 package java.util.concurrent.locks;
 import java.util.concurrent.*;
+import java.security.AccessController;
+import ikvm.runtime.ParkStatistics;
+import sun.security.action.GetIntegerAction;
 
 
 /**
@@ -123,9 +126,27 @@ public class LockSupport {
     private static final int PARK_STATE_PERMIT = 1;
     private static final int PARK_STATE_PARKED = 2;
 
+    // [IKVM] before blocking, park spins for a while to see if the permit shows up. The number of
+    // iterations adapts per thread (between MIN_SPINS and MAX_SPINS) based on whether spinning paid off
+    // the previous time. MAX_SPINS can be set with the ikvm.park.spins system property (0 disables spinning).
+    // The default is small (like the spin counts in JSR-166), because every iteration is a SpinWait(32).
+    private static final int MAX_SPINS = getMaxSpins();
+    private static final int MIN_SPINS = Math.min(8, MAX_SPINS);
+    // the ParkStatistics counters are only updated when ikvm.park.statistics is set
+    private static final boolean STATISTICS = ParkStatistics.ENABLED;
+
+    private static int getMaxSpins() {
+        // spinning on a single processor machine is pointless
+        int defaultSpins = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+        return Math.max(0, AccessController.doPrivileged(new GetIntegerAction("ikvm.park.spins", defaultSpins)).intValue());
+    }
+
     // these native methods are all implemented in map.xml
     private static native void setBlocker(Thread t, Object obj);
     private static native int cmpxchgParkState(Thread t, int newValue, int comparand);
+    private static native int getParkState(Thread t);
+    private static native int getParkSpins(Thread t);
+    private static native void setParkSpins(Thread t, int spins);
     private static native Object getParkLock(Thread t);
     private static native void setParkLock(Thread t, Object obj);
 
@@ -166,6 +187,11 @@ public class LockSupport {
             return;
         }
 
+        if (MAX_SPINS != 0 && spin(currentThread, deadline, nanos))
+        {
+            return;
+        }
+
         Object lock = getParkLock(currentThread);
         if (lock == null)
         {
@@ -188,6 +214,8 @@ public class LockSupport {
             }
             if (nanos >= 0)
             {
+                if (STATISTICS)
+                    ParkStatistics.blockingParks.increment();
                 try
                 {
                     lock.wait(nanos / 1000000, (int)(nanos % 1000000));
@@ -201,6 +229,61 @@ public class LockSupport {
         }
     }
 
+    // returns true if park should return, either because we consumed a permit while spinning
+    // or because the thread was interrupted or the timeout expired
+    private static boolean spin(Thread currentThread, boolean deadline, long nanos)
+    {
+        if (currentThread.isInterrupted())
+        {
+            return true;
+        }
+        long end = 0;
+        boolean timed = deadline || nanos != 0;
+        if (timed)
+        {
+            long remaining = deadline ? (nanos - System.currentTimeMillis()) * 1000000 : nanos;
+            if (remaining <= 0)
+            {
+                return true;
+            }
+            end = System.nanoTime() + remaining;
+        }
+        if (STATISTICS)
+            ParkStatistics.spinningParks.increment();
+        int spins = getParkSpins(currentThread);
+        if (spins == 0)
+        {
+            // first park on this thread
+            spins = MAX_SPINS;
+        }
+        for (int i = 0; i < spins; i++)
+        {
+            // we only try the cmpxchg when it looks like it will succeed, to avoid stealing the cache line from the unparker
+            if (getParkState(currentThread) == PARK_STATE_PERMIT
+                && cmpxchgParkState(currentThread, PARK_STATE_RUNNING, PARK_STATE_PERMIT) == PARK_STATE_PERMIT)
+            {
+                setParkSpins(currentThread, Math.min(MAX_SPINS, spins * 2));
+                if (STATISTICS)
+                    ParkStatistics.spinSuccesses.increment();
+                return true;
+            }
+            if ((i & 15) == 15)
+            {
+                if (currentThread.isInterrupted() || (timed && end - System.nanoTime() <= 0))
+                {
+                    return true;
+                }
+                Thread.yield();
+            }
+            else
+            {
+                cli.System.Threading.Thread.SpinWait(32);
+            }
+        }
+        setParkSpins(currentThread, Math.max(MIN_SPINS, spins / 2));
+        return false;
+    }
+
     /**
      * Disables the current thread for thread scheduling purposes unless the
      * permit is available.
@@ -100,6 +100,12 @@ public class Adler32 implements Checksum
   /** largest prime smaller than 65536 */
   private static final int BASE = 65521;
 
+  /**
+   * largest n such that 255n(n+1)/2 + (n+1)(BASE-1) <= 2^32-1,
+   * i.e. the number of bytes we can add before s2 has to be reduced
+   */
+  private static final int NMAX = 5552;
+
   private int checksum; //we do all in int.
 
   //Note that java doesn't have unsigned integers,
@@ -161,37 +167,51 @@ public class Adler32 implements Checksum
    */
   public void update (byte[] buf, int off, int len)
   {
+    if (off < 0 || len < 0 || off > buf.length - len)
+      throw new ArrayIndexOutOfBoundsException();
     //(By Per Bothner)
     int s1 = checksum & 0xffff;
     int s2 = checksum >>> 16;
 
     while (len > 0)
       {
-        // We can defer the modulo operation:
-        // s1 maximally grows from 65521 to 65521 + 255 * 3800
-        // s2 maximally grows by 3800 * median(s1) = 2090079800 < 2^31
-        int n = 3800;
+        // We can defer the modulo operation for NMAX bytes (like zlib),
+        // s2 then stays below 2^32, so we treat it as unsigned when
+        // reducing it.
+        int n = NMAX;
         if (n > len)
           n = len;
         len -= n;
+        while (n >= 16)
+          {
+            s1 += buf[off] & 0xFF; s2 += s1;
+            s1 += buf[off + 1] & 0xFF; s2 += s1;
+            s1 += buf[off + 2] & 0xFF; s2 += s1;
+            s1 += buf[off + 3] & 0xFF; s2 += s1;
+            s1 += buf[off + 4] & 0xFF; s2 += s1;
+            s1 += buf[off + 5] & 0xFF; s2 += s1;
+            s1 += buf[off + 6] & 0xFF; s2 += s1;
+            s1 += buf[off + 7] & 0xFF; s2 += s1;
+            s1 += buf[off + 8] & 0xFF; s2 += s1;
+            s1 += buf[off + 9] & 0xFF; s2 += s1;
+            s1 += buf[off + 10] & 0xFF; s2 += s1;
+            s1 += buf[off + 11] & 0xFF; s2 += s1;
+            s1 += buf[off + 12] & 0xFF; s2 += s1;
+            s1 += buf[off + 13] & 0xFF; s2 += s1;
+            s1 += buf[off + 14] & 0xFF; s2 += s1;
+            s1 += buf[off + 15] & 0xFF; s2 += s1;
+            off += 16;
+            n -= 16;
+          }
         while (--n >= 0)
           {
             s1 = s1 + (buf[off++] & 0xFF);
             s2 = s2 + s1;
           }
         s1 %= BASE;
-        s2 %= BASE;
+        s2 = (int) ((s2 & 0xffffffffL) % BASE);
       }
 
-    /*Old implementation, borrowed from somewhere:
-    int n;
-    
-    while (len-- > 0) {
-
-      s1 = (s1 + (bs[offset++] & 0xff)) % BASE; 
-      s2 = (s2 + s1) % BASE;
-    }*/
-    
     checksum = (s2 << 16) | s1;
   }
 
@@ -91,6 +91,19 @@ public class Deflater
    */
   public static final int DEFLATED = 8;
 
+  /* The sync flush isn't part of the Java 6 API, so it is only made
+   * available to ikvm.util.zip through sun.misc.SharedSecrets.
+   */
+  static
+  {
+    sun.misc.SharedSecrets.setJavaUtilZipAccess(new sun.misc.JavaUtilZipAccess() {
+        public int syncFlush(Deflater def, byte[] output, int offset, int length)
+        {
+          return def.syncFlush(output, offset, length);
+        }
+      });
+  }
+
   /*
    * The Deflater can do the following state transitions:
    *
@@ -155,6 +168,12 @@ public class Deflater
   /** The pending output. */
   private DeflaterPending pending;
 
+  /** Set when the current flush has to end with an empty stored block. */
+  private boolean syncFlush;
+
+  /** The total input at the end of the last sync flush. */
+  private long syncFlushedIn;
+
   /** The deflater engine. */
   private DeflaterEngine engine;
 
@@ -209,6 +228,8 @@ public class Deflater
   public void reset() 
   {
     state = (noHeader ? BUSY_STATE : INIT_STATE);
+    syncFlush = false;
+    syncFlushedIn = 0;
     totalOut = 0;
     pending.reset();
     engine.reset();
@@ -466,7 +487,19 @@ public class Deflater
               return origLength - length;
             else if (state == FLUSHING_STATE)
               {
-                if (level != NO_COMPRESSION)
+                if (syncFlush)
+                  {
+                    /* write an empty stored block, this also aligns
+                     * the output to a byte boundary.
+                     */
+                    pending.writeBits(DeflaterConstants.STORED_BLOCK << 1, 3);
+                    pending.alignToByte();
+                    pending.writeShort(0);
+                    pending.writeShort(0xffff);
+                    syncFlush = false;
+                    syncFlushedIn = engine.getTotalIn();
+                  }
+                else if (level != NO_COMPRESSION)
                   {
                     /* We have to supply some lookahead.  8 bit lookahead
                      * are needed by the zlib inflater, and we must fill 
@@ -502,6 +535,33 @@ public class Deflater
     return origLength - length;
   }
 
+  /**
+   * Deflates the current input block to the given array and ends the
+   * output on a byte boundary by writing an empty stored block, like
+   * the zlib Z_SYNC_FLUSH mode, so that everything that was input so
+   * far can be decompressed.  If the return value equals length, this
+   * method should be called again with a fresh output buffer until it
+   * returns less than length.  A new flush is only started when there
+   * is input that hasn't been flushed yet, so these calls don't write
+   * another empty stored block.
+   * @param output the buffer where to write the compressed data.
+   * @param offset the offset into the output array.
+   * @param length the maximum number of bytes that may be written.
+   * @exception IllegalStateException if end() was called.
+   */
+  int syncFlush(byte[] output, int offset, int length)
+  {
+    if (state == CLOSED_STATE)
+      throw new IllegalStateException("Deflater closed");
+    if ((state & (IS_FLUSHING | IS_FINISHING)) == 0
+        && (engine.getTotalIn() != syncFlushedIn || !engine.needsInput()))
+      {
+        state |= IS_FLUSHING;
+        syncFlush = true;
+      }
+    return deflate(output, offset, length);
+  }
+
   /**
    * Sets the dictionary which should be used in the deflate process.
    * This call is equivalent to <code>setDictionary(dict, 0,
@@ -530,6 +590,15 @@ public class Deflater
    */
   public void setDictionary(byte[] dict, int offset, int length)
   {
+    if (state == BUSY_STATE && noHeader
+        && engine.getTotalIn() == 0 && engine.needsInput())
+      {
+        /* Without a header there is no dictionary checksum to write,
+         * we only have to prime the window before the first input.
+         */
+        engine.setDictionary(dict, offset, length);
+        return;
+      }
     if (state != INIT_STATE)
       throw new IllegalStateException();
 
@@ -58,7 +58,6 @@ interface DeflaterConstants
   int HASH_BITS = DEFAULT_MEM_LEVEL + 7;
   int HASH_SIZE = 1 << HASH_BITS;
   int HASH_MASK = HASH_SIZE - 1;
-  int HASH_SHIFT = (HASH_BITS + MIN_MATCH - 1) / MIN_MATCH;
 
   int MIN_LOOKAHEAD = MAX_MATCH + MIN_MATCH + 1;
   int MAX_DIST = WSIZE - MIN_LOOKAHEAD;
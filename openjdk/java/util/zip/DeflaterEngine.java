@@ -41,7 +41,16 @@ final class DeflaterEngine implements DeflaterConstants
 {
   private static final int TOO_FAR = 4096;
 
-  private int ins_h;
+  /**
+   * The multiplier for the hash function (the golden ratio, as used by
+   * Fibonacci hashing).  Multiplying the three bytes and taking the top
+   * bits spreads them over the whole table, unlike the shift/xor hash
+   * that only keeps the low 5 bits of the first byte.
+   */
+  private static final int HASH_MULTIPLIER = 0x9e3779b1;
+
+  private static final boolean LITTLE_ENDIAN =
+    cli.System.BitConverter.IsLittleEndian;
 
   /**
    * Hashtable, hashing three characters to an index for window, so
@@ -127,7 +136,10 @@ final class DeflaterEngine implements DeflaterConstants
     huffman = new DeflaterHuffman(pending);
     adler = new Adler32();
 
-    window = new byte[2*WSIZE];
+    /* findLongestMatch() reads 8 bytes at a time, so it may read up to
+     * 7 bytes beyond strstart + MAX_MATCH.
+     */
+    window = new byte[2*WSIZE + 8];
     head   = new short[HASH_SIZE];
     prev   = new short[WSIZE];
 
@@ -194,7 +206,6 @@ final class DeflaterEngine implements DeflaterConstants
                                          strstart - blockStart, false);
                 blockStart = strstart;
               }
-            updateHash();
             break;
           case DEFLATE_FAST:
             if (strstart > blockStart)
@@ -221,35 +232,26 @@ final class DeflaterEngine implements DeflaterConstants
       }
   }
 
-  private void updateHash() {
-    if (DEBUGGING)
-      System.err.println("updateHash: "+strstart);
-    ins_h = (window[strstart] << HASH_SHIFT) ^ window[strstart + 1];
-  }    
+  /**
+   * Computes the hash of the three characters starting at index.
+   */
+  private int hash(int index) {
+    byte[] window = this.window;
+    int v = (window[index] & 0xff)
+      | (window[index + 1] & 0xff) << 8
+      | (window[index + 2] & 0xff) << 16;
+    return (v * HASH_MULTIPLIER) >>> (32 - HASH_BITS);
+  }
 
   /**
    * Inserts the current string in the head hash and returns the previous
    * value for this hash.
    */
   private int insertString() {
-    short match;
-    int hash = ((ins_h << HASH_SHIFT) ^ window[strstart + (MIN_MATCH -1)])
-      & HASH_MASK;
-
-    if (DEBUGGING)
-      {
-        if (hash != (((window[strstart] << (2*HASH_SHIFT))
-                      ^ (window[strstart + 1] << HASH_SHIFT)
-                      ^ (window[strstart + 2])) & HASH_MASK))
-          throw new InternalError("hash inconsistent: "+hash+"/"
-                                  +window[strstart]+","
-                                  +window[strstart+1]+","
-                                  +window[strstart+2]+","+HASH_SHIFT);
-      }
-
-    prev[strstart & WMASK] = match = head[hash];
+    int hash = hash(strstart);
+    int match = head[hash];
+    prev[strstart & WMASK] = (short) match;
     head[hash] = (short) strstart;
-    ins_h = hash;
     return match & 0xffff;
   }
 
@@ -310,9 +312,6 @@ final class DeflaterEngine implements DeflaterConstants
         totalIn  += more;
         lookahead += more;
       }
-
-    if (lookahead >= MIN_MATCH) 
-      updateHash();
   }
 
   /**
@@ -329,16 +328,14 @@ final class DeflaterEngine implements DeflaterConstants
     int chainLength = this.max_chain;
     int niceLength = this.niceLength;
     short[] prev = this.prev;
+    byte[] window = this.window;
     int scan  = this.strstart;
-    int match;
-    int best_end = this.strstart + matchLen;
     int best_len = Math.max(matchLen, MIN_MATCH - 1);
     
     int limit = Math.max(strstart - MAX_DIST, 0);
 
-    int strend = scan + MAX_MATCH - 1;
-    byte scan_end1 = window[best_end - 1];
-    byte scan_end  = window[best_end];
+    byte scan_end1 = window[scan + best_len - 1];
+    byte scan_end  = window[scan + best_len];
 
     /* Do not waste too much time if we already have a good match: */
     if (best_len >= this.goodLength)
@@ -363,36 +360,38 @@ final class DeflaterEngine implements DeflaterConstants
           || window[curMatch+1] != window[scan + 1])
         continue;
 
-      match = curMatch + 2;      
-      scan += 2;
-
-      /* We check for insufficient lookahead only every 8th comparison;
-       * the 256th check will be made at strstart+258.
+      /* Compare the rest of the strings 8 bytes at a time.  The first
+       * difference is the lowest (on little endian) differing byte of
+       * the xor of the two words.
        */
-      while (window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && window[++scan] == window[++match]
-             && scan < strend)
-        ;
-
-      if (scan > best_end) {
-//      if (DeflaterConstants.DEBUGGING && ins_h == 0)
-//        System.err.println("Found match: "+curMatch+"-"+(scan-strstart));
+      int len = 2;
+      for (;;)
+        {
+          long diff = cli.System.BitConverter.ToInt64(window, scan + len)
+            ^ cli.System.BitConverter.ToInt64(window, curMatch + len);
+          if (diff != 0)
+            {
+              len += (LITTLE_ENDIAN
+                      ? Long.numberOfTrailingZeros(diff)
+                      : Long.numberOfLeadingZeros(diff)) >> 3;
+              break;
+            }
+          len += 8;
+          if (len >= MAX_MATCH)
+            break;
+        }
+      if (len > MAX_MATCH)
+        len = MAX_MATCH;
+
+      if (len > best_len) {
         matchStart = curMatch;
-        best_end = scan;
-        best_len = scan - strstart;
+        best_len = len;
         if (best_len >= niceLength)
           break;
 
-        scan_end1  = window[best_end-1];
-        scan_end   = window[best_end];
+        scan_end1  = window[scan + best_len - 1];
+        scan_end   = window[scan + best_len];
       }
-      scan = strstart;
     } while ((curMatch = (prev[curMatch & WMASK] & 0xffff)) > limit
              && --chainLength != 0);
 
@@ -413,7 +412,6 @@ final class DeflaterEngine implements DeflaterConstants
 
     System.arraycopy(buffer, offset, window, strstart, length);
 
-    updateHash();
     length--;
     while (--length > 0)
       {
@@ -426,7 +424,9 @@ final class DeflaterEngine implements DeflaterConstants
     
   private boolean deflateStored(boolean flush, boolean finish)
   {
-    if (!flush && lookahead == 0)
+    if (lookahead == 0
+        && (!flush || (strstart == blockStart && !finish)))
+      /* Nothing (more) to flush, don't write empty stored blocks */
       return false;
 
     strstart += lookahead;
@@ -440,7 +440,8 @@ final class DeflaterEngine implements DeflaterConstants
         /* Block may move out of window */
         || flush)
       {
-        boolean lastBlock = finish;
+        /* Only the block that stores the remaining input is the last one */
+        boolean lastBlock = finish && flush;
         if (storedLen > DeflaterConstants.MAX_BLOCK_SIZE)
           {
             storedLen = DeflaterConstants.MAX_BLOCK_SIZE;
@@ -511,11 +512,7 @@ final class DeflaterEngine implements DeflaterConstants
                 strstart++;
               }
             else
-              {
-                strstart += matchLen;
-                if (lookahead >= MIN_MATCH - 1)
-                  updateHash();
-              }
+              strstart += matchLen;
             matchLen = MIN_MATCH - 1;
             if (!full)
               continue;
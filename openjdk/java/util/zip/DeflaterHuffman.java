@@ -94,6 +94,18 @@ class DeflaterHuffman
       pending.writeBits(codes[code] & 0xffff, length[code]);
     }
 
+    /* Writes the symbol followed by its extra bits with a single writeBits
+     * call (at most 15 + 13 bits, which fits in the bit buffer).
+     */
+    final void writeSymbol(int code, int extra, int extraBits)
+    {
+      if (DeflaterConstants.DEBUGGING)
+        freqs[code]--;
+      int len = length[code];
+      pending.writeBits((codes[code] & 0xffff) | (extra << len),
+                        len + extraBits);
+    }
+
     final void checkEmpty()
     {
       boolean empty = true;
@@ -620,18 +632,18 @@ class DeflaterHuffman
               System.err.print("["+(dist+1)+","+(litlen+3)+"]: ");
 
             int lc = l_code(litlen);
-            literalTree.writeSymbol(lc);
-
             int bits = (lc - 261) / 4;
             if (bits > 0 && bits <= 5)
-              pending.writeBits(litlen & ((1 << bits) - 1), bits);
+              literalTree.writeSymbol(lc, litlen & ((1 << bits) - 1), bits);
+            else
+              literalTree.writeSymbol(lc);
 
             int dc = d_code(dist);
-            distTree.writeSymbol(dc);
-
             bits = dc / 2 - 1;
             if (bits > 0)
-              pending.writeBits(dist & ((1 << bits) - 1), bits);
+              distTree.writeSymbol(dc, dist & ((1 << bits) - 1), bits);
+            else
+              distTree.writeSymbol(dc);
           }
         else
           {
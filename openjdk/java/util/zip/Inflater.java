@@ -96,6 +96,9 @@ public class Inflater
     12, 12, 13, 13
   };
 
+  /* The minimum number of input bytes for which we use the fast path */
+  private static final int FAST_MIN_INPUT = 64;
+
   /* This are the state in which the inflater can be.  */
   private static final int DECODE_HEADER           = 0;
   private static final int DECODE_DICT             = 1;
@@ -497,6 +500,149 @@ public class Inflater
     return false;
   }
 
+  /**
+   * The fast path of the huffman decoder (like inflate_fast in zlib).
+   * It is only entered when at least FAST_MIN_INPUT input bytes are
+   * available.  It decodes literal/length and distance codes directly
+   * from the input array into the output window, using a 64 bit bit
+   * buffer that is refilled once per code, as long as there are at least
+   * 8 input bytes and 258 bytes of free space in the window.  It returns
+   * when either runs out, at the end of the block, or when it encounters
+   * an unused code (those are left to the slow path).
+   */
+  private void decodeHuffmanFast () throws DataFormatException
+  {
+    int[] lcodes = litlenTree.getCodes(CPLENS, CPLEXT, 257);
+    int[] dcodes = distTree.getCodes(CPDIST, CPDEXT, 0);
+    StreamManipulator in = input;
+    OutputWindow out = outputWindow;
+    byte[] inbuf = in.window;
+    int pos = in.window_start;
+    int last = in.window_end - 8;
+    byte[] window = out.window;
+    int wend = out.window_end;
+    int filled = out.window_filled;
+    long hold = in.buffer & 0xffffffffL;
+    int bits = in.bits_in_buffer;
+    int loaded = 0;
+
+    while (pos <= last && filled <= OutputWindow.WINDOW_SIZE - 258)
+      {
+        /* A literal/length code with its extra bits and a distance code
+         * with its extra bits take at most 48 bits.
+         */
+        if (bits < 48)
+          {
+            do
+              {
+                hold |= (long) (inbuf[pos++] & 0xff) << bits;
+                bits += 8;
+                loaded++;
+              }
+            while (bits <= 56);
+          }
+        int code = lcodes[(int) hold & 511];
+        if (code < 0)
+          code = lcodes[-(code >> 4)
+                        | (((int) hold & ((1 << (code & 15)) - 1)) >> 9)];
+        int n = code & 15;
+        if (n == 0)
+          break;
+        hold >>>= n;
+        bits -= n;
+        int kind = (code >> 4) & 3;
+        if (kind == InflaterHuffmanTree.CODE_LITERAL)
+          {
+            window[wend] = (byte) (code >>> 16);
+            wend = (wend + 1) & OutputWindow.WINDOW_MASK;
+            filled++;
+            continue;
+          }
+        if (kind == InflaterHuffmanTree.CODE_END_OF_BLOCK)
+          {
+            distTree = null;
+            litlenTree = null;
+            mode = DECODE_BLOCKS;
+            break;
+          }
+        if (kind == InflaterHuffmanTree.CODE_INVALID)
+          throw new DataFormatException("Illegal rep length code");
+        n = (code >> 8) & 15;
+        int len = (code >>> 16) + ((int) hold & ((1 << n) - 1));
+        hold >>>= n;
+        bits -= n;
+
+        code = dcodes[(int) hold & 511];
+        if (code < 0)
+          code = dcodes[-(code >> 4)
+                        | (((int) hold & ((1 << (code & 15)) - 1)) >> 9)];
+        n = code & 15;
+        if (n == 0)
+          {
+            /* let the slow path decode the distance */
+            repLength = len;
+            mode = DECODE_HUFFMAN_DIST;
+            break;
+          }
+        hold >>>= n;
+        bits -= n;
+        if (((code >> 4) & 3) == InflaterHuffmanTree.CODE_INVALID)
+          throw new DataFormatException("Illegal rep dist code");
+        n = (code >> 8) & 15;
+        int dist = (code >>> 16) + ((int) hold & ((1 << n) - 1));
+        hold >>>= n;
+        bits -= n;
+
+        /* Same as OutputWindow.repeat() */
+        filled += len;
+        int from = (wend - dist) & OutputWindow.WINDOW_MASK;
+        int border = OutputWindow.WINDOW_SIZE - len;
+        if (from <= border && wend < border)
+          {
+            if (len <= dist)
+              System.arraycopy(window, from, window, wend, len);
+            else
+              {
+                /* The pattern overlaps, so we have to copy byte by byte */
+                for (int i = 0; i < len; i++)
+                  window[wend + i] = window[from + i];
+              }
+            wend += len;
+          }
+        else
+          {
+            while (len-- > 0)
+              {
+                window[wend++] = window[from++];
+                wend &= OutputWindow.WINDOW_MASK;
+                from &= OutputWindow.WINDOW_MASK;
+              }
+          }
+      }
+
+    out.window_end = wend;
+    out.window_filled = filled;
+
+    /* Give the whole bytes that we didn't use back to the input and make
+     * sure that an even number of bytes remains, like setInput() does.
+     * If we return all the bytes we loaded, at most the bits that were in
+     * the bit buffer to begin with remain (and the parity is unchanged),
+     * otherwise less than 8 bits remain.
+     */
+    int back = Math.min(loaded, bits >> 3);
+    pos -= back;
+    bits -= back << 3;
+    hold &= (1L << bits) - 1;
+    if (((in.window_end - pos) & 1) != 0)
+      {
+        hold |= (long) (inbuf[pos++] & 0xff) << bits;
+        bits += 8;
+      }
+    in.window_start = pos;
+    in.buffer = (int) hold;
+    in.bits_in_buffer = bits;
+  }
+
   /**
    * Decodes the huffman encoded symbols in the input stream.
    * @return false if more input is needed, true if output window is
@@ -508,6 +654,19 @@ public class Inflater
     int free = outputWindow.getFreeSpace();
     while (free >= 258)
       {
+        if (mode == DECODE_HUFFMAN
+            && input.window_end - input.window_start >= FAST_MIN_INPUT)
+          {
+            decodeHuffmanFast();
+            if (mode == DECODE_BLOCKS)
+              return true;
+            free = outputWindow.getFreeSpace();
+            if (free < 258)
+              return true;
+            /* continue with the slow path, so that we make progress
+             * even if the fast path stopped at an unused code
+             */
+          }
         int symbol;
         switch (mode)
           {
@@ -41,7 +41,14 @@ class InflaterHuffmanTree
 {
   private static final int MAX_BITLEN = 15;
   
+  /* The kinds of entries in the codes table */
+  static final int CODE_LITERAL = 0;
+  static final int CODE_COPY = 1;
+  static final int CODE_END_OF_BLOCK = 2;
+  static final int CODE_INVALID = 3;
+
   private short[] tree;
+  private int[] codes;
 
   static InflaterHuffmanTree defLitLenTree, defDistTree;
 
@@ -160,6 +167,49 @@ class InflaterHuffmanTree
       }
   }
 
+  /**
+   * Returns the tree as a table of decoded codes, for use by
+   * Inflater.decodeHuffmanFast().  The table is indexed like the tree
+   * (a 9 bit root table followed by the sub tables) and subtable
+   * references are the same as in the tree (negative).  The other
+   * entries combine everything the decoder needs to know about a code:
+   * bits 0-3 are the code length (0 for an unused code), bits 4-5 the
+   * kind of code (CODE_LITERAL etc.), bits 8-11 the number of extra bits
+   * and bits 16-30 the literal value or the base length or distance.
+   * Symbols before first - 1 are literals, first - 1 is the end of
+   * block code and the symbols from first on are copy codes that are
+   * translated using the base and extra tables.  The table is built
+   * on first use.
+   */
+  int[] getCodes(int[] base, int[] extra, int first)
+  {
+    int[] c = codes;
+    if (c == null)
+      {
+        short[] t = tree;
+        c = new int[t.length];
+        for (int i = 0; i < t.length; i++)
+          {
+            int entry = t[i];
+            int bits = entry & 15;
+            int symbol = entry >> 4;
+            if (entry < 0 || bits == 0)
+              c[i] = entry;
+            else if (symbol < first - 1)
+              c[i] = (symbol << 16) | (CODE_LITERAL << 4) | bits;
+            else if (symbol == first - 1)
+              c[i] = (CODE_END_OF_BLOCK << 4) | bits;
+            else if (symbol - first < base.length)
+              c[i] = (base[symbol - first] << 16) | (extra[symbol - first] << 8)
+                | (CODE_COPY << 4) | bits;
+            else
+              c[i] = (CODE_INVALID << 4) | bits;
+          }
+        codes = c;
+      }
+    return c;
+  }
+
   /**
    * Reads the next symbol from input.  The symbol is encoded using the
    * huffman tree.
@@ -54,7 +54,10 @@ class PendingBuffer
   int    start;
   int    end;
 
-  int    bits;
+  /* The bit buffer holds up to 63 bits, whole 32 bit words are written
+   * out as soon as they are complete.
+   */
+  long   bits;
   int    bitCount;
 
   public PendingBuffer()
@@ -111,11 +114,11 @@ class PendingBuffer
   public final void alignToByte() {
     if (DeflaterConstants.DEBUGGING && start != 0)
       throw new IllegalStateException();
-    if (bitCount > 0)
+    while (bitCount > 0)
       {
         buf[end++] = (byte) bits;
-        if (bitCount > 8)
-          buf[end++] = (byte) (bits >>> 8);
+        bits >>>= 8;
+        bitCount -= 8;
       }
     bits = 0;
     bitCount = 0;
@@ -127,13 +130,17 @@ class PendingBuffer
        throw new IllegalStateException();
      if (DeflaterConstants.DEBUGGING)
        System.err.println("writeBits("+Integer.toHexString(b)+","+count+")");
-    bits |= b << bitCount;
+    bits |= (long) b << bitCount;
     bitCount += count;
-    if (bitCount >= 16) {
-      buf[end++] = (byte) bits;
-      buf[end++] = (byte) (bits >>> 8);
-      bits >>>= 16;
-      bitCount -= 16;
+    if (bitCount >= 32) {
+      int word = (int) bits;
+      buf[end] = (byte) word;
+      buf[end + 1] = (byte) (word >>> 8);
+      buf[end + 2] = (byte) (word >>> 16);
+      buf[end + 3] = (byte) (word >>> 24);
+      end += 4;
+      bits >>>= 32;
+      bitCount -= 32;
     }
   }
 
@@ -159,7 +166,7 @@ class PendingBuffer
    * invalid.
    */
   public final int flush(byte[] output, int offset, int length) {
-    if (bitCount >= 8)
+    while (bitCount >= 8)
       {
         buf[end++] = (byte) bits;
         bits >>>= 8;
@@ -55,12 +55,13 @@ package java.util.zip;
 
 class StreamManipulator
 {
-  private byte[] window;
-  private int window_start = 0;
-  private int window_end = 0;
+  /* These fields are also accessed by Inflater.decodeHuffmanFast() */
+  byte[] window;
+  int window_start = 0;
+  int window_end = 0;
 
-  private int buffer = 0;
-  private int bits_in_buffer = 0;
+  int buffer = 0;
+  int bits_in_buffer = 0;
 
   /**
    * Get the next n bits but don't increase input pointer.  n must be
@@ -0,0 +1,74 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package sun.management;
+
+import java.lang.management.GarbageCollectorMXBean;
+
+// A GarbageCollectorMXBean for one generation of the CLR garbage collector.
+// GC.CollectionCount(n) includes the collections of the older generations (a gen 1 collection
+// also collects gen 0), so we report the collections that stopped at this generation.
+// The CLR doesn't tell us how long collections take, so the collection time is undefined (-1).
+final class GarbageCollectorImpl implements GarbageCollectorMXBean
+{
+    private final int generation;
+    private final String name;
+    private final String[] poolNames;
+
+    GarbageCollectorImpl(int generation, String name, String[] poolNames)
+    {
+        this.generation = generation;
+        this.name = name;
+        this.poolNames = poolNames;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isValid()
+    {
+        return true;
+    }
+
+    public String[] getMemoryPoolNames()
+    {
+        return poolNames.clone();
+    }
+
+    public long getCollectionCount()
+    {
+        long count = cli.System.GC.CollectionCount(generation);
+        if (generation < cli.System.GC.get_MaxGeneration())
+        {
+            count -= cli.System.GC.CollectionCount(generation + 1);
+        }
+        return count;
+    }
+
+    public long getCollectionTime()
+    {
+        return -1;
+    }
+}
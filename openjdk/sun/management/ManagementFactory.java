@@ -56,6 +56,8 @@ import java.util.Set;
 import java.util.Iterator;
 import java.util.ListIterator;
 import com.sun.management.OSMBeanFactory;
+import ikvm.runtime.SynchronizerStatistics;
+import ikvm.runtime.SynchronizerStatisticsMXBean;
 
 import static java.lang.management.ManagementFactory.*;
 
@@ -68,6 +70,7 @@ public class ManagementFactory {
     private static VMManagement jvm = new VMManagementImpl();
     private static RuntimeImpl runtimeMBean = null;
     private static OperatingSystemImpl osMBean = null;
+    private static MemoryImpl memoryMBean = null;
 
     private ManagementFactory() {};
 
@@ -76,7 +79,14 @@ public class ManagementFactory {
     }
 
     public static synchronized MemoryMXBean getMemoryMXBean() {
-	throw new Error("Not implemented");
+        return getMemoryImpl();
+    }
+
+    private static synchronized MemoryImpl getMemoryImpl() {
+        if (memoryMBean == null) {
+            memoryMBean = new MemoryImpl();
+        }
+        return memoryMBean;
     }
 
     public static synchronized ThreadMXBean getThreadMXBean() {
@@ -103,19 +113,67 @@ public class ManagementFactory {
     }
 
     public static List<MemoryPoolMXBean> getMemoryPoolMXBeans() {
-	throw new Error("Not implemented");
+        MemoryPoolMXBean[] pools = getMemoryImpl().getMemoryPools();
+        List<MemoryPoolMXBean> list = new ArrayList<MemoryPoolMXBean>(pools.length);
+        for (MemoryPoolMXBean p : pools) {
+            list.add(p);
+        }
+        return list;
     }
 
     public static List<MemoryManagerMXBean> getMemoryManagerMXBeans() {
-	throw new Error("Not implemented");
+        // all memory managers are garbage collectors
+        GarbageCollectorMXBean[] gcs = getMemoryImpl().getGarbageCollectors();
+        List<MemoryManagerMXBean> list = new ArrayList<MemoryManagerMXBean>(gcs.length);
+        for (GarbageCollectorMXBean gc : gcs) {
+            list.add(gc);
+        }
+        return list;
     }
 
     public static List<GarbageCollectorMXBean> getGarbageCollectorMXBeans() {
-	throw new Error("Not implemented");
+        GarbageCollectorMXBean[] gcs = getMemoryImpl().getGarbageCollectors();
+        List<GarbageCollectorMXBean> list = new ArrayList<GarbageCollectorMXBean>(gcs.length);
+        for (GarbageCollectorMXBean gc : gcs) {
+            list.add(gc);
+        }
+        return list;
     }
 
     public static MBeanServer createPlatformMBeanServer() {
-	return MBeanServerFactory.createMBeanServer();
+        MBeanServer mbs = MBeanServerFactory.createMBeanServer();
+        addMXBean(mbs, getMemoryMXBean(), MemoryMXBean.class, MEMORY_MXBEAN_NAME);
+        for (MemoryPoolMXBean p : getMemoryPoolMXBeans()) {
+            addMXBean(mbs, p, MemoryPoolMXBean.class,
+                      MEMORY_POOL_MXBEAN_DOMAIN_TYPE + ",name=" + p.getName());
+        }
+        for (GarbageCollectorMXBean gc : getGarbageCollectorMXBeans()) {
+            addMXBean(mbs, gc, GarbageCollectorMXBean.class,
+                      GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",name=" + gc.getName());
+        }
+        if (SynchronizerStatistics.isEnabled()) {
+            addMBean(mbs, new StandardMBean(SynchronizerStatistics.getMXBean(), SynchronizerStatisticsMXBean.class, true),
+                     SynchronizerStatistics.OBJECT_NAME);
+        }
+        return mbs;
+    }
+
+    private static <T> void addMXBean(MBeanServer mbs, T mbean, Class<T> mbeanInterface, String mbeanName) {
+        final DynamicMBean dmbean;
+        if (mbean instanceof NotificationEmitter) {
+            dmbean = new StandardEmitterMBean(mbean, mbeanInterface, true, (NotificationEmitter) mbean);
+        } else {
+            dmbean = new StandardMBean(mbean, mbeanInterface, true);
+        }
+        addMBean(mbs, dmbean, mbeanName);
+    }
+
+    private static void addMBean(MBeanServer mbs, Object mbean, String mbeanName) {
+        try {
+            mbs.registerMBean(mbean, new ObjectName(mbeanName));
+        } catch (javax.management.JMException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public static boolean isThreadSuspended(int state) {
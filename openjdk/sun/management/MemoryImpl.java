@@ -0,0 +1,209 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package sun.management;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+// MemoryMXBean implementation on top of the CLR garbage collector.
+// There is one GarbageCollectorMXBean per CLR generation and a single heap memory pool (see MemoryPoolImpl).
+// To find out when a collection happened, we keep a finalizable sentinel object around, every time it is
+// finalized we sample the heap size (as the pool's collection usage), check the thresholds and create a new sentinel.
+// Note that the sample is taken on the finalizer thread, so it may include some allocations made after the collection.
+// Notifications are delivered on a separate daemon thread, so that listeners can't block the finalizer thread.
+final class MemoryImpl extends NotificationBroadcasterSupport implements MemoryMXBean
+{
+    private final MemoryPoolImpl heap;
+    private final GarbageCollectorImpl[] collectors;
+    private final AtomicLong sequenceNumber = new AtomicLong();
+    private final int[] lastCounts;
+    private volatile boolean verbose;
+
+    MemoryImpl()
+    {
+        super(createNotificationExecutor());
+        int generations = cli.System.GC.get_MaxGeneration() + 1;
+        String[] managerNames = new String[generations];
+        for (int i = 0; i < generations; i++)
+        {
+            managerNames[i] = "Gen " + i;
+        }
+        heap = new MemoryPoolImpl(this, "CLR Heap", managerNames, -1);
+        collectors = new GarbageCollectorImpl[generations];
+        lastCounts = new int[generations];
+        for (int i = 0; i < generations; i++)
+        {
+            collectors[i] = new GarbageCollectorImpl(i, managerNames[i], new String[] { heap.getName() });
+            lastCounts[i] = cli.System.GC.CollectionCount(i);
+        }
+        new GCSentinel(this);
+    }
+
+    private static Executor createNotificationExecutor()
+    {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Memory Notification Dispatcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static final class GCSentinel
+    {
+        private final MemoryImpl memory;
+
+        GCSentinel(MemoryImpl memory)
+        {
+            this.memory = memory;
+        }
+
+        protected void finalize()
+        {
+            if (!cli.System.Environment.get_HasShutdownStarted())
+            {
+                try
+                {
+                    memory.afterCollection();
+                }
+                finally
+                {
+                    new GCSentinel(memory);
+                }
+            }
+        }
+    }
+
+    private void afterCollection()
+    {
+        long used = cli.System.GC.GetTotalMemory(false);
+        // the highest generation whose count changed is the one that was collected
+        // (we always update the counts, so that the first verbose report after setVerbose(true) is right)
+        int gen = -1;
+        for (int i = 0; i < lastCounts.length; i++)
+        {
+            int count = cli.System.GC.CollectionCount(i);
+            if (count != lastCounts[i])
+            {
+                lastCounts[i] = count;
+                gen = i;
+            }
+        }
+        if (verbose)
+        {
+            System.err.println("[GC (" + (gen == -1 ? "unknown" : collectors[gen].getName()) + ") " + (used >> 10) + "K]");
+        }
+        heap.afterCollection(used);
+    }
+
+    MemoryPoolMXBean[] getMemoryPools()
+    {
+        return new MemoryPoolMXBean[] { heap };
+    }
+
+    GarbageCollectorMXBean[] getGarbageCollectors()
+    {
+        return collectors.clone();
+    }
+
+    public int getObjectPendingFinalizationCount()
+    {
+        // the CLR doesn't expose the length of the finalization queue
+        return 0;
+    }
+
+    public MemoryUsage getHeapMemoryUsage()
+    {
+        return heap.getUsage();
+    }
+
+    public MemoryUsage getNonHeapMemoryUsage()
+    {
+        // code and metadata live outside of the CLR heap and aren't accounted for
+        return new MemoryUsage(-1, 0, 0, -1);
+    }
+
+    public boolean isVerbose()
+    {
+        return verbose;
+    }
+
+    public void setVerbose(boolean value)
+    {
+        ManagementFactory.checkControlAccess();
+        verbose = value;
+    }
+
+    public void gc()
+    {
+        Runtime.getRuntime().gc();
+    }
+
+    public MBeanNotificationInfo[] getNotificationInfo()
+    {
+        return new MBeanNotificationInfo[] {
+            new MBeanNotificationInfo(new String[] {
+                    MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED,
+                    MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED },
+                "javax.management.Notification",
+                "Memory Notification")
+        };
+    }
+
+    void notifyThresholdExceeded(String type, String poolName, MemoryUsage usage, long count)
+    {
+        String msg = type.equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED)
+            ? "Memory usage exceeds usage threshold"
+            : "Memory usage exceeds collection usage threshold";
+        Notification notif = new Notification(type, memoryObjectName(), sequenceNumber.incrementAndGet(), System.currentTimeMillis(), msg);
+        notif.setUserData(MemoryNotifInfoCompositeData.toCompositeData(new MemoryNotificationInfo(poolName, usage, count)));
+        sendNotification(notif);
+    }
+
+    private static ObjectName memoryObjectName()
+    {
+        try
+        {
+            return new ObjectName(java.lang.management.ManagementFactory.MEMORY_MXBEAN_NAME);
+        }
+        catch (MalformedObjectNameException x)
+        {
+            throw new InternalError(x.toString());
+        }
+    }
+}
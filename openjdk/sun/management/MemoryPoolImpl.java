@@ -0,0 +1,231 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package sun.management;
+
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+// The CLR doesn't expose the size of the individual generations (without performance counters),
+// so the whole garbage collected heap is modeled as a single memory pool that is managed by all
+// the collectors. Usage is GC.GetTotalMemory(false) and the collection usage is the usage that was
+// sampled by MemoryImpl right after the most recent collection. Peak usage is the highest usage we observed.
+// Since there are no allocation hooks, the usage threshold is checked whenever the usage is sampled
+// (i.e. after every collection and whenever the usage is queried).
+final class MemoryPoolImpl implements MemoryPoolMXBean
+{
+    private final MemoryImpl memory;
+    private final String name;
+    private final String[] managerNames;
+    private final long max;
+    // all mutable state is protected by this
+    private long peakUsed;
+    private MemoryUsage collectionUsage;
+    private long usageThreshold;
+    private long usageThresholdCount;
+    private boolean usageThresholdExceeded;
+    private long collectionThreshold;
+    private long collectionThresholdCount;
+
+    MemoryPoolImpl(MemoryImpl memory, String name, String[] managerNames, long max)
+    {
+        this.memory = memory;
+        this.name = name;
+        this.managerNames = managerNames;
+        this.max = max;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public MemoryType getType()
+    {
+        return MemoryType.HEAP;
+    }
+
+    public boolean isValid()
+    {
+        return true;
+    }
+
+    public String[] getMemoryManagerNames()
+    {
+        return managerNames.clone();
+    }
+
+    public MemoryUsage getUsage()
+    {
+        return sample(cli.System.GC.GetTotalMemory(false));
+    }
+
+    public synchronized MemoryUsage getPeakUsage()
+    {
+        return newUsage(peakUsed);
+    }
+
+    public synchronized void resetPeakUsage()
+    {
+        ManagementFactory.checkControlAccess();
+        peakUsed = cli.System.GC.GetTotalMemory(false);
+    }
+
+    public synchronized MemoryUsage getCollectionUsage()
+    {
+        return collectionUsage;
+    }
+
+    public boolean isUsageThresholdSupported()
+    {
+        return true;
+    }
+
+    public synchronized long getUsageThreshold()
+    {
+        return usageThreshold;
+    }
+
+    public synchronized void setUsageThreshold(long threshold)
+    {
+        ManagementFactory.checkControlAccess();
+        checkThreshold(threshold);
+        usageThreshold = threshold;
+        usageThresholdExceeded = false;
+    }
+
+    public synchronized boolean isUsageThresholdExceeded()
+    {
+        return usageThreshold > 0 && cli.System.GC.GetTotalMemory(false) >= usageThreshold;
+    }
+
+    public synchronized long getUsageThresholdCount()
+    {
+        return usageThresholdCount;
+    }
+
+    public boolean isCollectionUsageThresholdSupported()
+    {
+        return true;
+    }
+
+    public synchronized long getCollectionUsageThreshold()
+    {
+        return collectionThreshold;
+    }
+
+    public synchronized void setCollectionUsageThreshold(long threshold)
+    {
+        ManagementFactory.checkControlAccess();
+        checkThreshold(threshold);
+        collectionThreshold = threshold;
+    }
+
+    public synchronized boolean isCollectionUsageThresholdExceeded()
+    {
+        return collectionThreshold > 0 && collectionUsage != null && collectionUsage.getUsed() >= collectionThreshold;
+    }
+
+    public synchronized long getCollectionUsageThresholdCount()
+    {
+        return collectionThresholdCount;
+    }
+
+    private void checkThreshold(long threshold)
+    {
+        if (threshold < 0)
+        {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        if (max != -1 && threshold > max)
+        {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold + " > max (" + max + ").");
+        }
+    }
+
+    private MemoryUsage newUsage(long used)
+    {
+        return new MemoryUsage(-1, used, used, max == -1 ? -1 : Math.max(max, used));
+    }
+
+    // called by MemoryImpl after every collection
+    void afterCollection(long used)
+    {
+        MemoryUsage usage;
+        boolean notify = false;
+        long count = 0;
+        synchronized (this)
+        {
+            usage = collectionUsage = newUsage(used);
+            if (collectionThreshold > 0 && used >= collectionThreshold)
+            {
+                // unlike the usage threshold, the collection threshold is reported after every collection that exceeds it
+                notify = true;
+                count = ++collectionThresholdCount;
+            }
+        }
+        if (notify)
+        {
+            memory.notifyThresholdExceeded(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, name, usage, count);
+        }
+        sample(used);
+    }
+
+    private MemoryUsage sample(long used)
+    {
+        MemoryUsage usage = newUsage(used);
+        boolean notify = false;
+        long count = 0;
+        synchronized (this)
+        {
+            if (used > peakUsed)
+            {
+                peakUsed = used;
+            }
+            if (usageThreshold > 0)
+            {
+                if (used >= usageThreshold)
+                {
+                    // only notify when the threshold is crossed, not for every sample above it
+                    if (!usageThresholdExceeded)
+                    {
+                        usageThresholdExceeded = true;
+                        notify = true;
+                        count = ++usageThresholdCount;
+                    }
+                }
+                else
+                {
+                    usageThresholdExceeded = false;
+                }
+            }
+        }
+        if (notify)
+        {
+            memory.notifyThresholdExceeded(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, name, usage, count);
+        }
+        return usage;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package sun.misc;
+
+// Gives java.nio.Bits access to the reference processor, so that it can wait for the Cleaners of
+// collected direct buffers to run before giving up on a direct memory reservation.
+public interface JavaLangRefAccess
+{
+    // Forces the pending references to be processed and waits (for at most timeout milliseconds)
+    // until the resulting Cleaners have run. Returns false if the timeout expired.
+    boolean awaitReferenceProcessing(long timeout);
+}
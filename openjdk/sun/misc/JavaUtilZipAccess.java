@@ -0,0 +1,35 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package sun.misc;
+
+import java.util.zip.Deflater;
+
+// Gives ikvm.util.zip.ParallelGZIPOutputStream access to the sync flush of the Deflater,
+// which isn't part of the Java 6 java.util.zip API.
+public interface JavaUtilZipAccess
+{
+    // Deflates all input and ends the output with an empty stored block (like zlib's Z_SYNC_FLUSH).
+    // If the return value equals length, it has to be called again with more output space.
+    int syncFlush(Deflater def, byte[] output, int offset, int length);
+}
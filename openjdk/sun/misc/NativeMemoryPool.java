@@ -0,0 +1,205 @@
+/*
+  Copyright (C) 2010 Jeroen Frijters
+
+  This software is provided 'as-is', without any express or implied
+  warranty.  In no event will the authors be held liable for any damages
+  arising from the use of this software.
+
+  Permission is granted to anyone to use this software for any purpose,
+  including commercial applications, and to alter it and redistribute it
+  freely, subject to the following restrictions:
+
+  1. The origin of this software must not be misrepresented; you must not
+     claim that you wrote the original software. If you use this software
+     in a product, an acknowledgment in the product documentation would be
+     appreciated but is not required.
+  2. Altered source versions must be plainly marked as such, and must not be
+     misrepresented as being the original software.
+  3. This notice may not be removed or altered from any source distribution.
+
+  Jeroen Frijters
+  jeroen@frijters.net 
+
+*/
+package sun.misc;
+
+import cli.System.IntPtr;
+import cli.System.Runtime.InteropServices.Marshal;
+import ikvm.runtime.DirectMemoryStatistics;
+import java.security.AccessController;
+import sun.security.action.GetPropertyAction;
+
+// Optional pool for the native memory allocated by Unsafe.allocateMemory() (which is what backs direct ByteBuffers).
+// It is enabled by setting the ikvm.nio.pool system property to the maximum number of bytes to keep in the pool.
+// When enabled, every block gets a 16 byte header that records its size class and size, so that freeMemory()
+// knows to which free list the block should be returned. Requests larger than 2KB and up to 16MB (so including the
+// very common 4KB buffers) are rounded up to size classes that are a quarter power of two apart (so at most 25% is
+// wasted), other sizes bypass the pool.
+// Note that the setting is fixed the first time memory is allocated, because all blocks must have the header.
+final class NativeMemoryPool
+{
+    static final boolean ENABLED;
+    private static final long maxPooled;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x4e4d5031;
+    private static final int MIN_SHIFT = 11;
+    private static final int MAX_SHIFT = 24;
+    private static final int CLASSES_PER_DOUBLING = 4;
+    private static final int BLOCKS_PER_CLASS = 64;
+    private static final FreeList[] freeLists = new FreeList[(MAX_SHIFT - MIN_SHIFT) * CLASSES_PER_DOUBLING];
+
+    private static final class FreeList
+    {
+        final long[] blocks = new long[BLOCKS_PER_CLASS];
+        int count;      // protected by this
+    }
+
+    static
+    {
+        long max = 0;
+        try
+        {
+            String s = AccessController.doPrivileged(new GetPropertyAction("ikvm.nio.pool"));
+            if (s != null)
+            {
+                max = Long.parseLong(s);
+            }
+        }
+        catch (Throwable _)
+        {
+            // if the system properties aren't available yet (or the value is invalid), the pool stays disabled
+        }
+        maxPooled = max;
+        ENABLED = max > 0;
+        for (int i = 0; i < freeLists.length; i++)
+        {
+            freeLists[i] = new FreeList();
+        }
+    }
+
+    private NativeMemoryPool()
+    {
+    }
+
+    // returns -1 if the size should not be pooled
+    private static int sizeClass(long bytes)
+    {
+        if (bytes <= (1L << MIN_SHIFT) || bytes > (1L << MAX_SHIFT))
+        {
+            return -1;
+        }
+        // 2^(n - 1) < bytes <= 2^n
+        int n = 64 - Long.numberOfLeadingZeros(bytes - 1);
+        long base = 1L << (n - 1);
+        long step = base / CLASSES_PER_DOUBLING;
+        int k = (int)((bytes - base + step - 1) / step);
+        return (n - 1 - MIN_SHIFT) * CLASSES_PER_DOUBLING + k - 1;
+    }
+
+    private static long classSize(int index)
+    {
+        long base = 1L << (index / CLASSES_PER_DOUBLING + MIN_SHIFT);
+        return base + (index % CLASSES_PER_DOUBLING + 1) * (base / CLASSES_PER_DOUBLING);
+    }
+
+    @cli.System.Security.SecurityCriticalAttribute.Annotation
+    static long allocate(long bytes)
+    {
+        int index = sizeClass(bytes);
+        long size = bytes;
+        if (index >= 0)
+        {
+            size = classSize(index);
+            FreeList list = freeLists[index];
+            long block = 0;
+            synchronized (list)
+            {
+                if (list.count != 0)
+                {
+                    block = list.blocks[--list.count];
+                }
+            }
+            if (block != 0)
+            {
+                DirectMemoryStatistics.pooledMemory.add(-size);
+                DirectMemoryStatistics.allocatedMemory.add(size);
+                DirectMemoryStatistics.poolHits.increment();
+                return block + HEADER_SIZE;
+            }
+            DirectMemoryStatistics.poolMisses.increment();
+        }
+        long block;
+        try
+        {
+            block = Unsafe.allocateHGlobal(size + HEADER_SIZE);
+        }
+        catch (OutOfMemoryError x)
+        {
+            // return the pooled memory to the OS and try again
+            if (trim() == 0)
+            {
+                throw x;
+            }
+            block = Unsafe.allocateHGlobal(size + HEADER_SIZE);
+        }
+        Marshal.WriteInt32(IntPtr.op_Explicit(block), MAGIC);
+        Marshal.WriteInt32(IntPtr.op_Explicit(block + 4), index);
+        Marshal.WriteInt64(IntPtr.op_Explicit(block + 8), size);
+        DirectMemoryStatistics.allocatedMemory.add(size);
+        return block + HEADER_SIZE;
+    }
+
+    @cli.System.Security.SecurityCriticalAttribute.Annotation
+    static void free(long address)
+    {
+        if (address == 0)
+        {
+            return;
+        }
+        long block = address - HEADER_SIZE;
+        if (Marshal.ReadInt32(IntPtr.op_Explicit(block)) != MAGIC)
+        {
+            throw new InternalError("Invalid address passed to freeMemory");
+        }
+        int index = Marshal.ReadInt32(IntPtr.op_Explicit(block + 4));
+        long size = Marshal.ReadInt64(IntPtr.op_Explicit(block + 8));
+        DirectMemoryStatistics.allocatedMemory.add(-size);
+        if (index >= 0 && DirectMemoryStatistics.pooledMemory.sum() + size <= maxPooled)
+        {
+            FreeList list = freeLists[index];
+            synchronized (list)
+            {
+                if (list.count != BLOCKS_PER_CLASS)
+                {
+                    list.blocks[list.count++] = block;
+                    DirectMemoryStatistics.pooledMemory.add(size);
+                    return;
+                }
+            }
+        }
+        Marshal.FreeHGlobal(IntPtr.op_Explicit(block));
+    }
+
+    // frees all pooled memory and returns the number of bytes freed
+    @cli.System.Security.SecurityCriticalAttribute.Annotation
+    static long trim()
+    {
+        long freed = 0;
+        for (int i = 0; i < freeLists.length; i++)
+        {
+            FreeList list = freeLists[i];
+            long size = classSize(i);
+            synchronized (list)
+            {
+                while (list.count != 0)
+                {
+                    Marshal.FreeHGlobal(IntPtr.op_Explicit(list.blocks[--list.count]));
+                    list.blocks[list.count] = 0;
+                    DirectMemoryStatistics.pooledMemory.add(-size);
+                    freed += size;
+                }
+            }
+        }
+        return freed;
+    }
+}
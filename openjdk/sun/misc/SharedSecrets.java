@@ -28,6 +28,7 @@ package sun.misc;
 import java.util.jar.JarFile;
 import java.io.Console;
 import java.io.File;
+import java.lang.ref.Reference;
 
 /** A repository of "shared secrets", which are a mechanism for
     calling implementation-private methods in another package without
@@ -45,6 +46,8 @@ public class SharedSecrets {
     private static JavaIOAccess javaIOAccess;
     private static JavaIODeleteOnExitAccess javaIODeleteOnExitAccess;
     private static JavaNetAccess javaNetAccess;
+    private static JavaLangRefAccess javaLangRefAccess;
+    private static JavaUtilZipAccess javaUtilZipAccess;
 
     public static JavaUtilJarAccess javaUtilJarAccess() {
         if (javaUtilJarAccess == null) {
@@ -92,4 +95,25 @@ public class SharedSecrets {
         }
         return javaIODeleteOnExitAccess;
     }
+
+    public static void setJavaLangRefAccess(JavaLangRefAccess jlra) {
+        javaLangRefAccess = jlra;
+    }
+
+    public static JavaLangRefAccess getJavaLangRefAccess() {
+        if (javaLangRefAccess == null) {
+            unsafe.ensureClassInitialized(Reference.class);
+        }
+        return javaLangRefAccess;
+    }
+
+    public static void setJavaUtilZipAccess(JavaUtilZipAccess jiza) {
+        javaUtilZipAccess = jiza;
+    }
+
+    // NOTE java.util.zip lives in another assembly, so we can't force it to be initialized here,
+    // but the access object is only needed for an existing Deflater (whose class is initialized)
+    public static JavaUtilZipAccess getJavaUtilZipAccess() {
+        return javaUtilZipAccess;
+    }
 }
@@ -28,11 +28,13 @@ import cli.System.IntPtr;
 import cli.System.Runtime.InteropServices.Marshal;
 import cli.System.Security.Permissions.SecurityAction;
 import cli.System.Security.Permissions.SecurityPermissionAttribute;
+import ikvm.internal.UnsafeFieldAccessor;
 import ikvm.lang.Internal;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ReflectHelper;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 public final class Unsafe
 {
@@ -40,7 +42,40 @@ public final class Unsafe
     // NOTE sun.corba.Bridge actually access this field directly (via reflection),
     // so the name must match the JDK name.
     private static final Unsafe theUnsafe = new Unsafe();
-    private static final ArrayList<Field> fields = new ArrayList<Field>();
+    // the JDK 7 array layout constants, we don't have an array base offset and for byte arrays all
+    // the (multi-byte) primitive accessors work on the byte index, so libraries can use them for fast access
+    public static final int ARRAY_BOOLEAN_BASE_OFFSET = theUnsafe.arrayBaseOffset(boolean[].class);
+    public static final int ARRAY_BYTE_BASE_OFFSET = theUnsafe.arrayBaseOffset(byte[].class);
+    public static final int ARRAY_SHORT_BASE_OFFSET = theUnsafe.arrayBaseOffset(short[].class);
+    public static final int ARRAY_CHAR_BASE_OFFSET = theUnsafe.arrayBaseOffset(char[].class);
+    public static final int ARRAY_INT_BASE_OFFSET = theUnsafe.arrayBaseOffset(int[].class);
+    public static final int ARRAY_LONG_BASE_OFFSET = theUnsafe.arrayBaseOffset(long[].class);
+    public static final int ARRAY_FLOAT_BASE_OFFSET = theUnsafe.arrayBaseOffset(float[].class);
+    public static final int ARRAY_DOUBLE_BASE_OFFSET = theUnsafe.arrayBaseOffset(double[].class);
+    public static final int ARRAY_OBJECT_BASE_OFFSET = theUnsafe.arrayBaseOffset(Object[].class);
+    public static final int ARRAY_BOOLEAN_INDEX_SCALE = theUnsafe.arrayIndexScale(boolean[].class);
+    public static final int ARRAY_BYTE_INDEX_SCALE = theUnsafe.arrayIndexScale(byte[].class);
+    public static final int ARRAY_SHORT_INDEX_SCALE = theUnsafe.arrayIndexScale(short[].class);
+    public static final int ARRAY_CHAR_INDEX_SCALE = theUnsafe.arrayIndexScale(char[].class);
+    public static final int ARRAY_INT_INDEX_SCALE = theUnsafe.arrayIndexScale(int[].class);
+    public static final int ARRAY_LONG_INDEX_SCALE = theUnsafe.arrayIndexScale(long[].class);
+    public static final int ARRAY_FLOAT_INDEX_SCALE = theUnsafe.arrayIndexScale(float[].class);
+    public static final int ARRAY_DOUBLE_INDEX_SCALE = theUnsafe.arrayIndexScale(double[].class);
+    public static final int ARRAY_OBJECT_INDEX_SCALE = theUnsafe.arrayIndexScale(Object[].class);
+    public static final int ADDRESS_SIZE = theUnsafe.addressSize();
+    // field offsets are indices into the (copy-on-write) accessors array, so that lookups don't need to lock,
+    // offsets is used to hand out the same offset for the same field (and is protected by its own lock)
+    private static final HashMap<Field, Integer> offsets = new HashMap<Field, Integer>();
+    private static volatile UnsafeFieldAccessor[] accessors = new UnsafeFieldAccessor[0];
+    // we don't have an array base offset, so an array offset is simply the index scaled by
+    // the element size (as reported by arrayIndexScale) and we decode it with a shift
+    private static final int ARRAY_CHAR_INDEX_SHIFT = 1;
+    private static final int ARRAY_SHORT_INDEX_SHIFT = 1;
+    private static final int ARRAY_INT_INDEX_SHIFT = 2;
+    private static final int ARRAY_FLOAT_INDEX_SHIFT = 2;
+    private static final int ARRAY_LONG_INDEX_SHIFT = 3;
+    private static final int ARRAY_DOUBLE_INDEX_SHIFT = 3;
+    private static final int ARRAY_OBJECT_INDEX_SHIFT = 2;
 
     private Unsafe() { }
 
@@ -54,7 +89,6 @@ public final class Unsafe
         return theUnsafe;
     }
 
-    // NOTE we have a really lame (and slow) implementation!
     public long objectFieldOffset(Field field)
     {
         if(Modifier.isStatic(field.getModifiers()))
@@ -67,15 +101,45 @@ public final class Unsafe
     @Deprecated
     public int fieldOffset(Field original)
     {
+        synchronized(offsets)
+        {
+            Integer offset = offsets.get(original);
+            if(offset != null)
+            {
+                return offset.intValue();
+            }
+        }
+        // we create the accessor outside of the lock, because it may need to finish the declaring type
         Field copy = ReflectHelper.copyFieldAndMakeAccessible(original);
-        synchronized(fields)
+        UnsafeFieldAccessor accessor = createFieldAccessor(copy);
+        synchronized(offsets)
         {
-            int id = fields.size();
-            fields.add(copy);
+            Integer offset = offsets.get(original);
+            if(offset != null)
+            {
+                // another thread beat us to it
+                return offset.intValue();
+            }
+            UnsafeFieldAccessor[] curr = accessors;
+            int id = curr.length;
+            UnsafeFieldAccessor[] next = Arrays.copyOf(curr, id + 1);
+            next[id] = accessor;
+            accessors = next;
+            offsets.put(original, Integer.valueOf(id));
             return id;
         }
     }
 
+    // IKVM specific method that returns the number of distinct fields that have been assigned an offset
+    public int getRegisteredFieldCount()
+    {
+        return accessors.length;
+    }
+
+    // returns a runtime generated accessor (that uses Interlocked and volatile loads/stores) if the field
+    // supports it, or else a plain UnsafeFieldAccessor (that uses reflection)
+    private static native UnsafeFieldAccessor createFieldAccessor(Field field);
+
     public int arrayBaseOffset(Class c)
     {
         return 0;
@@ -83,52 +147,88 @@ public final class Unsafe
 
     public int arrayIndexScale(Class c)
     {
-        return 1;
+        if (c == byte[].class || c == boolean[].class)
+        {
+            return 1;
+        }
+        else if (c == char[].class)
+        {
+            return 1 << ARRAY_CHAR_INDEX_SHIFT;
+        }
+        else if (c == short[].class)
+        {
+            return 1 << ARRAY_SHORT_INDEX_SHIFT;
+        }
+        else if (c == int[].class)
+        {
+            return 1 << ARRAY_INT_INDEX_SHIFT;
+        }
+        else if (c == float[].class)
+        {
+            return 1 << ARRAY_FLOAT_INDEX_SHIFT;
+        }
+        else if (c == long[].class)
+        {
+            return 1 << ARRAY_LONG_INDEX_SHIFT;
+        }
+        else if (c == double[].class)
+        {
+            return 1 << ARRAY_DOUBLE_INDEX_SHIFT;
+        }
+        else
+        {
+            return 1 << ARRAY_OBJECT_INDEX_SHIFT;
+        }
     }
 
-    private static Field getField(long offset)
+    // the array element operations are implemented natively with Interlocked on the array element
+    private static native boolean compareAndSwapObjectElement(Object[] array, int index, Object expect, Object update);
+    private static native Object getObjectVolatileElement(Object[] array, int index);
+    private static native void putObjectVolatileElement(Object[] array, int index, Object newValue);
+    private static native boolean compareAndSwapIntElement(int[] array, int index, int expect, int update);
+    private static native int getIntVolatileElement(int[] array, int index);
+    private static native void putIntVolatileElement(int[] array, int index, int newValue);
+    private static native boolean compareAndSwapLongElement(long[] array, int index, long expect, long update);
+    private static native long getLongVolatileElement(long[] array, int index);
+    private static native void putLongVolatileElement(long[] array, int index, long newValue);
+
+    // multi-byte accesses on a byte array (where the offset is simply the byte index) are done with
+    // unaligned loads and stores in native byte order (implemented in map.xml)
+    private static int byteArrayIndex(byte[] array, long offset, int size)
     {
-        synchronized(fields)
+        if (offset < 0 || offset > array.length - size)
         {
-            return fields.get((int)offset);
+            throw new ArrayIndexOutOfBoundsException();
         }
+        return (int)offset;
+    }
+
+    private static native short getShortUnaligned(byte[] array, int index);
+    private static native void putShortUnaligned(byte[] array, int index, short newValue);
+    private static native int getIntUnaligned(byte[] array, int index);
+    private static native void putIntUnaligned(byte[] array, int index, int newValue);
+    private static native long getLongUnaligned(byte[] array, int index);
+    private static native void putLongUnaligned(byte[] array, int index, long newValue);
+
+    private static UnsafeFieldAccessor getFieldAccessor(long offset)
+    {
+        return accessors[(int)offset];
+    }
+
+    private static Field getField(long offset)
+    {
+        return getFieldAccessor(offset).getField();
     }
 
     public boolean compareAndSwapObject(Object obj, long offset, Object expect, Object update)
     {
         if(obj instanceof Object[])
         {
-            Object[] arr = (Object[])obj;
-            int index = (int)offset;
-            synchronized(this)
-            {
-                if(arr[index] == expect)
-                {
-                    arr[index] = update;
-                    return true;
-                }
-                return false;
-            }
+            return compareAndSwapObjectElement((Object[])obj, (int)(offset >> ARRAY_OBJECT_INDEX_SHIFT), expect, update);
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    if(field.get(obj) == expect)
-                    {
-                        field.set(obj, update);
-                        return true;
-                    }
-                    return false;
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            return getFieldAccessor(offset).compareAndSwapObject(obj, expect, update);
         }
     }
 
@@ -136,25 +236,11 @@ public final class Unsafe
     {
         if(obj instanceof Object[])
         {
-            synchronized(this)
-            {
-                ((Object[])obj)[(int)offset] = newValue;
-            }
+            putObjectVolatileElement((Object[])obj, (int)(offset >> ARRAY_OBJECT_INDEX_SHIFT), newValue);
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    field.set(obj, newValue);
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            getFieldAccessor(offset).putObjectVolatile(obj, newValue);
         }
     }
 
@@ -167,25 +253,11 @@ public final class Unsafe
     {
         if(obj instanceof Object[])
         {
-            synchronized(this)
-            {
-                return ((Object[])obj)[(int)offset];
-            }
+            return getObjectVolatileElement((Object[])obj, (int)(offset >> ARRAY_OBJECT_INDEX_SHIFT));
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    return field.get(obj);
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            return getFieldAccessor(offset).getObjectVolatile(obj);
         }
     }
 
@@ -193,37 +265,11 @@ public final class Unsafe
     {
         if(obj instanceof int[])
         {
-            int[] arr = (int[])obj;
-            int index = (int)offset;
-            synchronized(this)
-            {
-                if(arr[index] == expect)
-                {
-                    arr[index] = update;
-                    return true;
-                }
-                return false;
-            }
+            return compareAndSwapIntElement((int[])obj, (int)(offset >> ARRAY_INT_INDEX_SHIFT), expect, update);
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    if(field.getInt(obj) == expect)
-                    {
-                        field.setInt(obj, update);
-                        return true;
-                    }
-                    return false;
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            return getFieldAccessor(offset).compareAndSwapInt(obj, expect, update);
         }
     }
 
@@ -231,25 +277,11 @@ public final class Unsafe
     {
         if(obj instanceof int[])
         {
-            synchronized(this)
-            {
-                ((int[])obj)[(int)offset] = newValue;
-            }
+            putIntVolatileElement((int[])obj, (int)(offset >> ARRAY_INT_INDEX_SHIFT), newValue);
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    field.setInt(obj, newValue);
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            getFieldAccessor(offset).putIntVolatile(obj, newValue);
         }
     }
 
@@ -262,25 +294,11 @@ public final class Unsafe
     {
         if(obj instanceof int[])
         {
-            synchronized(this)
-            {
-                return ((int[])obj)[(int)offset];
-            }
+            return getIntVolatileElement((int[])obj, (int)(offset >> ARRAY_INT_INDEX_SHIFT));
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    return field.getInt(obj);
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            return getFieldAccessor(offset).getIntVolatile(obj);
         }
     }
 
@@ -288,37 +306,11 @@ public final class Unsafe
     {
         if(obj instanceof long[])
         {
-            long[] arr = (long[])obj;
-            int index = (int)offset;
-            synchronized(this)
-            {
-                if(arr[index] == expect)
-                {
-                    arr[index] = update;
-                    return true;
-                }
-                return false;
-            }
+            return compareAndSwapLongElement((long[])obj, (int)(offset >> ARRAY_LONG_INDEX_SHIFT), expect, update);
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    if(field.getLong(obj) == expect)
-                    {
-                        field.setLong(obj, update);
-                        return true;
-                    }
-                    return false;
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            return getFieldAccessor(offset).compareAndSwapLong(obj, expect, update);
         }
     }
 
@@ -326,25 +318,11 @@ public final class Unsafe
     {
         if(obj instanceof long[])
         {
-            synchronized(this)
-            {
-                ((long[])obj)[(int)offset] = newValue;
-            }
+            putLongVolatileElement((long[])obj, (int)(offset >> ARRAY_LONG_INDEX_SHIFT), newValue);
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    field.setLong(obj, newValue);
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            getFieldAccessor(offset).putLongVolatile(obj, newValue);
         }
     }
 
@@ -357,25 +335,11 @@ public final class Unsafe
     {
         if(obj instanceof long[])
         {
-            synchronized(this)
-            {
-                return ((long[])obj)[(int)offset];
-            }
+            return getLongVolatileElement((long[])obj, (int)(offset >> ARRAY_LONG_INDEX_SHIFT));
         }
         else
         {
-            Field field = getField(offset);
-            synchronized(field)
-            {
-                try
-                {
-                    return field.getLong(obj);
-                }
-                catch(IllegalAccessException x)
-                {
-                    throw (InternalError)new InternalError().initCause(x);
-                }
-            }
+            return getFieldAccessor(offset).getLongVolatile(obj);
         }
     }
 
@@ -459,7 +423,12 @@ public final class Unsafe
     {
         if (obj instanceof char[])
         {
-            ((char[])obj)[(int)offset] = newValue;
+            ((char[])obj)[(int)(offset >> ARRAY_CHAR_INDEX_SHIFT)] = newValue;
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            putShortUnaligned(array, byteArrayIndex(array, offset, 2), (short)newValue);
         }
         else
         {
@@ -478,7 +447,12 @@ public final class Unsafe
     {
         if (obj instanceof char[])
         {
-            return ((char[])obj)[(int)offset];
+            return ((char[])obj)[(int)(offset >> ARRAY_CHAR_INDEX_SHIFT)];
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            return (char)getShortUnaligned(array, byteArrayIndex(array, offset, 2));
         }
         else
         {
@@ -497,7 +471,12 @@ public final class Unsafe
     {
         if (obj instanceof short[])
         {
-            ((short[])obj)[(int)offset] = newValue;
+            ((short[])obj)[(int)(offset >> ARRAY_SHORT_INDEX_SHIFT)] = newValue;
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            putShortUnaligned(array, byteArrayIndex(array, offset, 2), newValue);
         }
         else
         {
@@ -516,7 +495,12 @@ public final class Unsafe
     {
         if (obj instanceof short[])
         {
-            return ((short[])obj)[(int)offset];
+            return ((short[])obj)[(int)(offset >> ARRAY_SHORT_INDEX_SHIFT)];
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            return getShortUnaligned(array, byteArrayIndex(array, offset, 2));
         }
         else
         {
@@ -535,7 +519,12 @@ public final class Unsafe
     {
         if (obj instanceof int[])
         {
-            ((int[])obj)[(int)offset] = newValue;
+            ((int[])obj)[(int)(offset >> ARRAY_INT_INDEX_SHIFT)] = newValue;
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            putIntUnaligned(array, byteArrayIndex(array, offset, 4), newValue);
         }
         else
         {
@@ -554,7 +543,12 @@ public final class Unsafe
     {
         if (obj instanceof int[])
         {
-            return ((int[])obj)[(int)offset];
+            return ((int[])obj)[(int)(offset >> ARRAY_INT_INDEX_SHIFT)];
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            return getIntUnaligned(array, byteArrayIndex(array, offset, 4));
         }
         else
         {
@@ -573,7 +567,12 @@ public final class Unsafe
     {
         if (obj instanceof float[])
         {
-            ((float[])obj)[(int)offset] = newValue;
+            ((float[])obj)[(int)(offset >> ARRAY_FLOAT_INDEX_SHIFT)] = newValue;
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            putIntUnaligned(array, byteArrayIndex(array, offset, 4), Float.floatToRawIntBits(newValue));
         }
         else
         {
@@ -592,7 +591,12 @@ public final class Unsafe
     {
         if (obj instanceof float[])
         {
-            return ((float[])obj)[(int)offset];
+            return ((float[])obj)[(int)(offset >> ARRAY_FLOAT_INDEX_SHIFT)];
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            return Float.intBitsToFloat(getIntUnaligned(array, byteArrayIndex(array, offset, 4)));
         }
         else
         {
@@ -611,7 +615,12 @@ public final class Unsafe
     {
         if (obj instanceof long[])
         {
-            ((long[])obj)[(int)offset] = newValue;
+            ((long[])obj)[(int)(offset >> ARRAY_LONG_INDEX_SHIFT)] = newValue;
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            putLongUnaligned(array, byteArrayIndex(array, offset, 8), newValue);
         }
         else
         {
@@ -630,7 +639,12 @@ public final class Unsafe
     {
         if (obj instanceof long[])
         {
-            return ((long[])obj)[(int)offset];
+            return ((long[])obj)[(int)(offset >> ARRAY_LONG_INDEX_SHIFT)];
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            return getLongUnaligned(array, byteArrayIndex(array, offset, 8));
         }
         else
         {
@@ -649,7 +663,12 @@ public final class Unsafe
     {
         if (obj instanceof double[])
         {
-            ((double[])obj)[(int)offset] = newValue;
+            ((double[])obj)[(int)(offset >> ARRAY_DOUBLE_INDEX_SHIFT)] = newValue;
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            putLongUnaligned(array, byteArrayIndex(array, offset, 8), Double.doubleToRawLongBits(newValue));
         }
         else
         {
@@ -668,7 +687,12 @@ public final class Unsafe
     {
         if (obj instanceof double[])
         {
-            return ((double[])obj)[(int)offset];
+            return ((double[])obj)[(int)(offset >> ARRAY_DOUBLE_INDEX_SHIFT)];
+        }
+        else if (obj instanceof byte[])
+        {
+            byte[] array = (byte[])obj;
+            return Double.longBitsToDouble(getLongUnaligned(array, byteArrayIndex(array, offset, 8)));
         }
         else
         {
@@ -687,7 +711,7 @@ public final class Unsafe
     {
         if (obj instanceof Object[])
         {
-            ((Object[])obj)[(int)offset] = newValue;
+            ((Object[])obj)[(int)(offset >> ARRAY_OBJECT_INDEX_SHIFT)] = newValue;
         }
         else
         {
@@ -706,7 +730,7 @@ public final class Unsafe
     {
         if (obj instanceof Object[])
         {
-            return ((Object[])obj)[(int)offset];
+            return ((Object[])obj)[(int)(offset >> ARRAY_OBJECT_INDEX_SHIFT)];
         }
         else
         {
@@ -852,6 +876,16 @@ public final class Unsafe
     @SecurityPermissionAttribute.Annotation(value = SecurityAction.__Enum.LinkDemand, UnmanagedCode = true)
     @cli.System.Security.SecurityCriticalAttribute.Annotation
     public long allocateMemory(long bytes)
+    {
+        if (NativeMemoryPool.ENABLED)
+        {
+            return NativeMemoryPool.allocate(bytes);
+        }
+        return allocateHGlobal(bytes);
+    }
+
+    @cli.System.Security.SecurityCriticalAttribute.Annotation
+    static long allocateHGlobal(long bytes)
     {
         try
         {
@@ -868,6 +902,11 @@ public final class Unsafe
     @cli.System.Security.SecurityCriticalAttribute.Annotation
     public void freeMemory(long address)
     {
+        if (NativeMemoryPool.ENABLED)
+        {
+            NativeMemoryPool.free(address);
+            return;
+        }
         Marshal.FreeHGlobal(IntPtr.op_Explicit(address));
     }
 
@@ -875,9 +914,12 @@ public final class Unsafe
     @cli.System.Security.SecurityCriticalAttribute.Annotation
     public void setMemory(long address, long bytes, byte value)
     {
-        while (bytes-- > 0)
+        while (bytes > 0)
         {
-            putByte(address++, value);
+            int chunk = (int)Math.min(bytes, Integer.MAX_VALUE);
+            setMemoryBlock(address, chunk, value);
+            address += chunk;
+            bytes -= chunk;
         }
     }
 
@@ -885,12 +927,38 @@ public final class Unsafe
     @cli.System.Security.SecurityCriticalAttribute.Annotation
     public void copyMemory(long srcAddress, long destAddress, long bytes)
     {
-	while (bytes-- > 0)
-	{
-	    putByte(destAddress++, getByte(srcAddress++));
-	}
+        copyMemory(null, srcAddress, null, destAddress, bytes);
+    }
+
+    @SecurityPermissionAttribute.Annotation(value = SecurityAction.__Enum.LinkDemand, UnmanagedCode = true)
+    @cli.System.Security.SecurityCriticalAttribute.Annotation
+    public void copyMemory(Object srcBase, long srcOffset, Object destBase, long destOffset, long bytes)
+    {
+        if (srcBase == null && destBase == null && (destOffset + bytes <= srcOffset || srcOffset + bytes <= destOffset))
+        {
+            // cpblk doesn't support overlapping blocks, so we only use it for disjoint native memory blocks
+            while (bytes > 0)
+            {
+                int chunk = (int)Math.min(bytes, Integer.MAX_VALUE);
+                copyMemoryBlock(srcOffset, destOffset, chunk);
+                srcOffset += chunk;
+                destOffset += chunk;
+                bytes -= chunk;
+            }
+        }
+        else if (bytes > 0)
+        {
+            copyMemoryBuffered(srcBase, srcOffset, destBase, destOffset, bytes);
+        }
     }
 
+    // implemented in map.xml with initblk and cpblk
+    private static native void setMemoryBlock(long address, int bytes, byte value);
+    private static native void copyMemoryBlock(long srcAddress, long destAddress, int bytes);
+    // copies between primitive arrays (where the offset is a byte offset into the array) and/or native memory
+    // (when the base is null) using Buffer.BlockCopy and Marshal.Copy, this also handles overlapping native memory blocks
+    private static native void copyMemoryBuffered(Object srcBase, long srcOffset, Object destBase, long destOffset, long bytes);
+
     @SecurityPermissionAttribute.Annotation(value = SecurityAction.__Enum.LinkDemand, UnmanagedCode = true)
     @cli.System.Security.SecurityCriticalAttribute.Annotation
     public byte getByte(long address)
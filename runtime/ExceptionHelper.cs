@@ -48,6 +48,12 @@ namespace IKVM.Internal
 		private static readonly Key EXCEPTION_DATA_KEY = new Key();
 		private static readonly Exception NOT_REMAPPED = new Exception();
 		private static readonly bool cleanStackTrace = JVM.SafeGetEnvironmentVariable("IKVM_DISABLE_STACKTRACE_CLEANING") == null;
+		// When IKVM_LAZY_STACKTRACE is set, we capture the stack frames without source file information (which requires reading
+		// the debug symbols and is very expensive) when an exception is thrown. The file names and line numbers of Java methods
+		// are then obtained from the SourceFileAttribute and LineNumberTableAttribute when the stack trace is first requested,
+		// only the line numbers of methods that don't have a LineNumberTableAttribute (i.e. non-Java code) are lost.
+		// Note that this field is also used by Throwable.fillInStackTrace() in map.xml.
+		internal static readonly bool captureFileInfo = JVM.SafeGetEnvironmentVariable("IKVM_LAZY_STACKTRACE") == null;
 #if !FIRST_PASS
 		private static readonly ikvm.@internal.WeakIdentityMap exceptions = new ikvm.@internal.WeakIdentityMap();
 
@@ -80,10 +86,10 @@ namespace IKVM.Internal
 			[HideFromJava]
 			internal ExceptionInfoHelper(Exception x, bool captureAdditionalStackTrace)
 			{
-				tracePart1 = new StackTrace(x, true);
+				tracePart1 = new StackTrace(x, captureFileInfo);
 				if (captureAdditionalStackTrace)
 				{
-					tracePart2 = new StackTrace(true);
+					tracePart2 = new StackTrace(captureFileInfo);
 				}
 			}
 
@@ -633,7 +639,7 @@ namespace IKVM.Internal
 #if !FIRST_PASS
 			lock (x)
 			{
-				ExceptionInfoHelper eih = new ExceptionInfoHelper(null, new StackTrace(true));
+				ExceptionInfoHelper eih = new ExceptionInfoHelper(null, new StackTrace(captureFileInfo));
 				IDictionary data = x.Data;
 				if (data != null && !data.IsReadOnly)
 				{
@@ -762,8 +768,8 @@ namespace IKVM.Internal
 				{
 					if (!unused && t.tracePart1 == null && t.tracePart2 == null && t.stackTrace == null)
 					{
-						t.tracePart1 = new StackTrace(org, true);
-						t.tracePart2 = new StackTrace(true);
+						t.tracePart1 = new StackTrace(org, captureFileInfo);
+						t.tracePart2 = new StackTrace(captureFileInfo);
 					}
 					if (t != org)
 					{
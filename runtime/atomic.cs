@@ -35,20 +35,13 @@ using System.Reflection.Emit;
 using IKVM.Internal;
 using InstructionFlags = IKVM.Internal.ClassFile.Method.InstructionFlags;
 
-static class AtomicReferenceFieldUpdaterEmitter
+static class AtomicFieldUpdaterEmitter
 {
 	private static readonly Dictionary<FieldWrapper, ConstructorBuilder> map = new Dictionary<FieldWrapper, ConstructorBuilder>();
 
-	internal static bool Emit(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, ClassFile classFile, int i, ClassFile.Method.Instruction[] code, InstructionFlags[] flags)
+	internal static bool EmitReferenceFieldUpdater(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, ClassFile classFile, int i, ClassFile.Method.Instruction[] code, InstructionFlags[] flags)
 	{
-		if (i >= 3
-			&& (flags[i - 0] & InstructionFlags.BranchTarget) == 0
-			&& (flags[i - 1] & InstructionFlags.BranchTarget) == 0
-			&& (flags[i - 2] & InstructionFlags.BranchTarget) == 0
-			&& (flags[i - 3] & InstructionFlags.BranchTarget) == 0
-			&& code[i - 1].NormalizedOpCode == NormalizedByteCode.__ldc
-			&& code[i - 2].NormalizedOpCode == NormalizedByteCode.__ldc
-			&& code[i - 3].NormalizedOpCode == NormalizedByteCode.__ldc)
+		if (IsStructuralMatch(i, 3, code, flags))
 		{
 			// we now have a structural match, now we need to make sure that the argument values are what we expect
 			TypeWrapper tclass = classFile.GetConstantPoolClassType(code[i - 3].Arg1);
@@ -56,11 +49,11 @@ static class AtomicReferenceFieldUpdaterEmitter
 			string fieldName = classFile.GetConstantPoolConstantString(code[i - 1].Arg1);
 			if (tclass == wrapper && !vclass.IsUnloadable && !vclass.IsPrimitive && !vclass.IsNonPrimitiveValueType)
 			{
-				FieldWrapper field = wrapper.GetFieldWrapper(fieldName, vclass.SigName);
-				if (field != null && !field.IsStatic && field.IsVolatile && field.DeclaringType == wrapper && field.FieldTypeWrapper == vclass)
+				FieldWrapper field = GetUpdatableField(wrapper, fieldName, vclass);
+				if (field != null)
 				{
 					// everything matches up, now call the actual emitter
-					DoEmit(context, wrapper, ilgen, field);
+					DoEmit(context, wrapper, ilgen, field, 3, "ikvm.internal.IntrinsicAtomicReferenceFieldUpdater", "__<ARFU>_");
 					return true;
 				}
 			}
@@ -68,7 +61,63 @@ static class AtomicReferenceFieldUpdaterEmitter
 		return false;
 	}
 
-	private static void DoEmit(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, FieldWrapper field)
+	internal static bool EmitIntegerFieldUpdater(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, ClassFile classFile, int i, ClassFile.Method.Instruction[] code, InstructionFlags[] flags)
+	{
+		return EmitPrimitiveFieldUpdater(context, wrapper, ilgen, classFile, i, code, flags, PrimitiveTypeWrapper.INT, "ikvm.internal.IntrinsicAtomicIntegerFieldUpdater", "__<AIFU>_");
+	}
+
+	internal static bool EmitLongFieldUpdater(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, ClassFile classFile, int i, ClassFile.Method.Instruction[] code, InstructionFlags[] flags)
+	{
+		return EmitPrimitiveFieldUpdater(context, wrapper, ilgen, classFile, i, code, flags, PrimitiveTypeWrapper.LONG, "ikvm.internal.IntrinsicAtomicLongFieldUpdater", "__<ALFU>_");
+	}
+
+	private static bool EmitPrimitiveFieldUpdater(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, ClassFile classFile, int i, ClassFile.Method.Instruction[] code, InstructionFlags[] flags, TypeWrapper fieldType, string baseClass, string prefix)
+	{
+		if (IsStructuralMatch(i, 2, code, flags))
+		{
+			TypeWrapper tclass = classFile.GetConstantPoolClassType(code[i - 2].Arg1);
+			string fieldName = classFile.GetConstantPoolConstantString(code[i - 1].Arg1);
+			if (tclass == wrapper)
+			{
+				FieldWrapper field = GetUpdatableField(wrapper, fieldName, fieldType);
+				if (field != null)
+				{
+					DoEmit(context, wrapper, ilgen, field, 2, baseClass, prefix);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static bool IsStructuralMatch(int i, int ldcCount, ClassFile.Method.Instruction[] code, InstructionFlags[] flags)
+	{
+		if (i < ldcCount || (flags[i] & InstructionFlags.BranchTarget) != 0)
+		{
+			return false;
+		}
+		for (int j = 1; j <= ldcCount; j++)
+		{
+			if ((flags[i - j] & InstructionFlags.BranchTarget) != 0
+				|| code[i - j].NormalizedOpCode != NormalizedByteCode.__ldc)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static FieldWrapper GetUpdatableField(TypeWrapper wrapper, string fieldName, TypeWrapper fieldType)
+	{
+		FieldWrapper field = wrapper.GetFieldWrapper(fieldName, fieldType.SigName);
+		if (field != null && !field.IsStatic && field.IsVolatile && field.DeclaringType == wrapper && field.FieldTypeWrapper == fieldType)
+		{
+			return field;
+		}
+		return null;
+	}
+
+	private static void DoEmit(DynamicTypeWrapper.FinishContext context, TypeWrapper wrapper, CodeEmitter ilgen, FieldWrapper field, int argCount, string baseClass, string prefix)
 	{
 		ConstructorBuilder cb;
 		bool exists;
@@ -79,11 +128,19 @@ static class AtomicReferenceFieldUpdaterEmitter
 		if (!exists)
 		{
 			// note that we don't need to lock here, because we're running as part of FinishCore, which is already protected by a lock
-			TypeWrapper arfuTypeWrapper = ClassLoaderWrapper.LoadClassCritical("ikvm.internal.IntrinsicAtomicReferenceFieldUpdater");
-			TypeBuilder tb = wrapper.TypeAsBuilder.DefineNestedType("__<ARFU>_" + field.Name + field.Signature.Replace('.', '/'), TypeAttributes.NestedPrivate | TypeAttributes.Sealed, arfuTypeWrapper.TypeAsBaseType);
-			EmitCompareAndSet("compareAndSet", tb, field.GetField());
-			EmitGet(tb, field.GetField());
-			EmitSet("set", tb, field.GetField());
+			TypeWrapper updaterTypeWrapper = ClassLoaderWrapper.LoadClassCritical(baseClass);
+			TypeBuilder tb = wrapper.TypeAsBuilder.DefineNestedType(prefix + field.Name + field.Signature.Replace('.', '/'), TypeAttributes.NestedPrivate | TypeAttributes.Sealed, updaterTypeWrapper.TypeAsBaseType);
+			FieldInfo fi = field.GetField();
+			if (field.FieldTypeWrapper.IsPrimitive)
+			{
+				EmitPrimitiveMethods(tb, fi);
+			}
+			else
+			{
+				EmitCompareAndSet("compareAndSet", tb, fi);
+				EmitGet(tb, fi);
+				EmitSet("set", tb, fi);
+			}
 
 			cb = tb.DefineConstructor(MethodAttributes.Assembly, CallingConventions.Standard, Type.EmptyTypes);
 			lock (map)
@@ -92,19 +149,20 @@ static class AtomicReferenceFieldUpdaterEmitter
 			}
 			CodeEmitter ctorilgen = CodeEmitter.Create(cb);
 			ctorilgen.Emit(OpCodes.Ldarg_0);
-			MethodWrapper basector = arfuTypeWrapper.GetMethodWrapper("<init>", "()V", false);
+			MethodWrapper basector = updaterTypeWrapper.GetMethodWrapper("<init>", "()V", false);
 			basector.Link();
 			basector.EmitCall(ctorilgen);
 			ctorilgen.Emit(OpCodes.Ret);
 			context.RegisterPostFinishProc(delegate
 			{
-				arfuTypeWrapper.Finish();
+				updaterTypeWrapper.Finish();
 				tb.CreateType();
 			});
 		}
-		ilgen.LazyEmitPop();
-		ilgen.LazyEmitPop();
-		ilgen.LazyEmitPop();
+		for (int i = 0; i < argCount; i++)
+		{
+			ilgen.LazyEmitPop();
+		}
 		ilgen.Emit(OpCodes.Newobj, cb);
 	}
 
@@ -162,4 +220,76 @@ static class AtomicReferenceFieldUpdaterEmitter
 		ilgen.Emit(OpCodes.Stfld, field);
 		ilgen.Emit(OpCodes.Ret);
 	}
+
+	// generates compareAndSet, get, set, getAndSet and addAndGet for an int or long field,
+	// note that for long we use Interlocked.Read and Interlocked.Exchange to get atomic loads and stores on 32 bit platforms
+	private static void EmitPrimitiveMethods(TypeBuilder tb, FieldInfo field)
+	{
+		Type type = field.FieldType;
+		bool isLong = type == Types.Int64;
+		Type byref = type.MakeByRefType();
+		Type interlocked = JVM.Import(typeof(System.Threading.Interlocked));
+
+		MethodBuilder compareAndSet = tb.DefineMethod("compareAndSet", MethodAttributes.Public | MethodAttributes.Virtual, Types.Boolean, new Type[] { Types.Object, type, type });
+		ILGenerator ilgen = compareAndSet.GetILGenerator();
+		ilgen.Emit(OpCodes.Ldarg_1);
+		ilgen.Emit(OpCodes.Castclass, field.DeclaringType);
+		ilgen.Emit(OpCodes.Ldflda, field);
+		ilgen.Emit(OpCodes.Ldarg_3);
+		ilgen.Emit(OpCodes.Ldarg_2);
+		ilgen.Emit(OpCodes.Call, interlocked.GetMethod("CompareExchange", new Type[] { byref, type, type }));
+		ilgen.Emit(OpCodes.Ldarg_2);
+		ilgen.Emit(OpCodes.Ceq);
+		ilgen.Emit(OpCodes.Ret);
+
+		MethodBuilder get = tb.DefineMethod("get", MethodAttributes.Public | MethodAttributes.Virtual, type, new Type[] { Types.Object });
+		ilgen = get.GetILGenerator();
+		ilgen.Emit(OpCodes.Ldarg_1);
+		ilgen.Emit(OpCodes.Castclass, field.DeclaringType);
+		if (isLong)
+		{
+			ilgen.Emit(OpCodes.Ldflda, field);
+			ilgen.Emit(OpCodes.Call, interlocked.GetMethod("Read", new Type[] { byref }));
+		}
+		else
+		{
+			ilgen.Emit(OpCodes.Volatile);
+			ilgen.Emit(OpCodes.Ldfld, field);
+		}
+		ilgen.Emit(OpCodes.Ret);
+
+		MethodBuilder set = tb.DefineMethod("set", MethodAttributes.Public | MethodAttributes.Virtual, Types.Void, new Type[] { Types.Object, type });
+		ilgen = set.GetILGenerator();
+		ilgen.Emit(OpCodes.Ldarg_1);
+		ilgen.Emit(OpCodes.Castclass, field.DeclaringType);
+		if (isLong)
+		{
+			ilgen.Emit(OpCodes.Ldflda, field);
+			ilgen.Emit(OpCodes.Ldarg_2);
+			ilgen.Emit(OpCodes.Call, interlocked.GetMethod("Exchange", new Type[] { byref, type }));
+			ilgen.Emit(OpCodes.Pop);
+		}
+		else
+		{
+			ilgen.Emit(OpCodes.Ldarg_2);
+			ilgen.Emit(OpCodes.Volatile);
+			ilgen.Emit(OpCodes.Stfld, field);
+		}
+		ilgen.Emit(OpCodes.Ret);
+
+		EmitInterlockedOperation(tb, "getAndSet", field, interlocked.GetMethod("Exchange", new Type[] { byref, type }));
+		EmitInterlockedOperation(tb, "addAndGet", field, interlocked.GetMethod("Add", new Type[] { byref, type }));
+	}
+
+	private static void EmitInterlockedOperation(TypeBuilder tb, string name, FieldInfo field, MethodInfo interlockedMethod)
+	{
+		MethodBuilder mb = tb.DefineMethod(name, MethodAttributes.Public | MethodAttributes.Virtual, field.FieldType, new Type[] { Types.Object, field.FieldType });
+		ILGenerator ilgen = mb.GetILGenerator();
+		ilgen.Emit(OpCodes.Ldarg_1);
+		ilgen.Emit(OpCodes.Castclass, field.DeclaringType);
+		ilgen.Emit(OpCodes.Ldflda, field);
+		ilgen.Emit(OpCodes.Ldarg_2);
+		ilgen.Emit(OpCodes.Call, interlockedMethod);
+		ilgen.Emit(OpCodes.Ret);
+	}
 }
@@ -96,6 +96,8 @@ namespace IKVM.Internal
 			intrinsics.Add(new IntrinsicKey("java.lang.Double", "longBitsToDouble", "(J)D"), Double_longBitsToDouble);
 			intrinsics.Add(new IntrinsicKey("java.lang.System", "arraycopy", "(Ljava.lang.Object;ILjava.lang.Object;II)V"), System_arraycopy);
 			intrinsics.Add(new IntrinsicKey("java.util.concurrent.atomic.AtomicReferenceFieldUpdater", "newUpdater", "(Ljava.lang.Class;Ljava.lang.Class;Ljava.lang.String;)Ljava.util.concurrent.atomic.AtomicReferenceFieldUpdater;"), AtomicReferenceFieldUpdater_newUpdater);
+			intrinsics.Add(new IntrinsicKey("java.util.concurrent.atomic.AtomicIntegerFieldUpdater", "newUpdater", "(Ljava.lang.Class;Ljava.lang.String;)Ljava.util.concurrent.atomic.AtomicIntegerFieldUpdater;"), AtomicIntegerFieldUpdater_newUpdater);
+			intrinsics.Add(new IntrinsicKey("java.util.concurrent.atomic.AtomicLongFieldUpdater", "newUpdater", "(Ljava.lang.Class;Ljava.lang.String;)Ljava.util.concurrent.atomic.AtomicLongFieldUpdater;"), AtomicLongFieldUpdater_newUpdater);
 #if STATIC_COMPILER
 			// String_toCharArray relies on globals, which aren't usable in dynamic mode
 			intrinsics.Add(new IntrinsicKey("java.lang.String", "toCharArray", "()[C"), String_toCharArray);
@@ -261,7 +263,17 @@ namespace IKVM.Internal
 
 		private static bool AtomicReferenceFieldUpdater_newUpdater(DynamicTypeWrapper.FinishContext context, CodeEmitter ilgen, MethodWrapper method, MethodAnalyzer ma, int opcodeIndex, MethodWrapper caller, ClassFile classFile, Instruction[] code, InstructionFlags[] flags)
 		{
-			return AtomicReferenceFieldUpdaterEmitter.Emit(context, caller.DeclaringType, ilgen, classFile, opcodeIndex, code, flags);
+			return AtomicFieldUpdaterEmitter.EmitReferenceFieldUpdater(context, caller.DeclaringType, ilgen, classFile, opcodeIndex, code, flags);
+		}
+
+		private static bool AtomicIntegerFieldUpdater_newUpdater(DynamicTypeWrapper.FinishContext context, CodeEmitter ilgen, MethodWrapper method, MethodAnalyzer ma, int opcodeIndex, MethodWrapper caller, ClassFile classFile, Instruction[] code, InstructionFlags[] flags)
+		{
+			return AtomicFieldUpdaterEmitter.EmitIntegerFieldUpdater(context, caller.DeclaringType, ilgen, classFile, opcodeIndex, code, flags);
+		}
+
+		private static bool AtomicLongFieldUpdater_newUpdater(DynamicTypeWrapper.FinishContext context, CodeEmitter ilgen, MethodWrapper method, MethodAnalyzer ma, int opcodeIndex, MethodWrapper caller, ClassFile classFile, Instruction[] code, InstructionFlags[] flags)
+		{
+			return AtomicFieldUpdaterEmitter.EmitLongFieldUpdater(context, caller.DeclaringType, ilgen, classFile, opcodeIndex, code, flags);
 		}
 
 		private static bool String_toCharArray(DynamicTypeWrapper.FinishContext context, CodeEmitter ilgen, MethodWrapper method, MethodAnalyzer ma, int opcodeIndex, MethodWrapper caller, ClassFile classFile, Instruction[] code, InstructionFlags[] flags)
@@ -426,6 +438,27 @@ namespace IKVM.Internal
 #endif
 
 		private static bool ThreadLocal_new(DynamicTypeWrapper.FinishContext context, CodeEmitter ilgen, MethodWrapper method, MethodAnalyzer ma, int opcodeIndex, MethodWrapper caller, ClassFile classFile, Instruction[] code, InstructionFlags[] flags)
+		{
+			if (!VerifierTypeWrapper.IsNew(ma.GetRawStackTypeWrapper(opcodeIndex, 0)))
+			{
+				// this is the base class constructor invocation of a ThreadLocal subclass
+				return false;
+			}
+			if (IsExecutedOnlyOnce(opcodeIndex, caller, flags))
+			{
+				ilgen.Emit(OpCodes.Newobj, DefineThreadLocalType(context, opcodeIndex, caller));
+			}
+			else
+			{
+				// all other instantiations use the index based ThreadLocal, which avoids the ThreadLocalMap hash lookup
+				MethodWrapper mw = ClassLoaderWrapper.LoadClassCritical("ikvm.internal.IndexedThreadLocal").GetMethodWrapper("<init>", "()V", false);
+				mw.Link();
+				mw.EmitNewobj(ilgen);
+			}
+			return true;
+		}
+
+		private static bool IsExecutedOnlyOnce(int opcodeIndex, MethodWrapper caller, InstructionFlags[] flags)
 		{
 			// it is only valid to replace a ThreadLocal instantiation by our ThreadStatic based version, if we can prove that the instantiation only happens once
 			// (which is the case when we're in <clinit> and there aren't any branches that lead to the current position)
@@ -447,7 +480,6 @@ namespace IKVM.Internal
 					return false;
 				}
 			}
-			ilgen.Emit(OpCodes.Newobj, DefineThreadLocalType(context, opcodeIndex, caller));
 			return true;
 		}
 
@@ -462,10 +494,15 @@ namespace IKVM.Internal
 			ilgen.Emit(OpCodes.Ldsfld, fb);
 			ilgen.Emit(OpCodes.Ret);
 			MethodBuilder mbSet = tb.DefineMethod("set", MethodAttributes.Public | MethodAttributes.Virtual | MethodAttributes.Final, null, new Type[] { Types.Object });
-			ilgen = mbSet.GetILGenerator();
-			ilgen.Emit(OpCodes.Ldarg_1);
-			ilgen.Emit(OpCodes.Stsfld, fb);
-			ilgen.Emit(OpCodes.Ret);
+			CodeEmitter setilgen = CodeEmitter.Create(mbSet);
+			setilgen.Emit(OpCodes.Ldarg_1);
+			setilgen.Emit(OpCodes.Stsfld, fb);
+			// track() records the ThreadLocal when we're running on a pooled thread, so that the value can be cleared when the Java thread ends
+			setilgen.Emit(OpCodes.Ldarg_0);
+			MethodWrapper track = threadLocal.GetMethodWrapper("track", "()V", false);
+			track.Link();
+			track.EmitCall(setilgen);
+			setilgen.Emit(OpCodes.Ret);
 			ConstructorBuilder cb = tb.DefineConstructor(MethodAttributes.Assembly, CallingConventions.Standard, Type.EmptyTypes);
 			CodeEmitter ctorilgen = CodeEmitter.Create(cb);
 			ctorilgen.Emit(OpCodes.Ldarg_0);
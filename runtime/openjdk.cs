@@ -101,6 +101,7 @@ using jnCharset = java.nio.charset.Charset;
 using juProperties = java.util.Properties;
 using irUtil = ikvm.runtime.Util;
 using iiFieldReflectorBase = ikvm.@internal.FieldReflectorBase;
+using iiUnsafeFieldAccessor = ikvm.@internal.UnsafeFieldAccessor;
 using juzZipFile = java.util.zip.ZipFile;
 using juzZipEntry = java.util.zip.ZipEntry;
 using juEnumeration = java.util.Enumeration;
@@ -3483,6 +3484,27 @@ namespace IKVM.NativeCode.java
 			}
 		}
 
+		namespace @ref
+		{
+			static class ReferenceProcessor
+			{
+				public static long allocHandle(object obj)
+				{
+					return (long)GCHandle.ToIntPtr(GCHandle.Alloc(obj, GCHandleType.WeakTrackResurrection));
+				}
+
+				public static object getTarget(long handle)
+				{
+					return GCHandle.FromIntPtr((IntPtr)handle).Target;
+				}
+
+				public static void freeHandle(long handle)
+				{
+					GCHandle.FromIntPtr((IntPtr)handle).Free();
+				}
+			}
+		}
+
 		namespace reflect
 		{
 			static class Proxy
@@ -5342,6 +5364,495 @@ namespace IKVM.NativeCode.sun.misc
 			}
 			return FormatterServices.GetUninitializedObject(wrapper.TypeAsBaseType);
 		}
+
+		[System.Security.SecurityCritical]
+		public static void copyMemoryBuffered(object srcBase, long srcOffset, object destBase, long destOffset, long bytes)
+		{
+			SystemArray src = (SystemArray)srcBase;
+			SystemArray dst = (SystemArray)destBase;
+			if (src != null && dst != null)
+			{
+				// Buffer.BlockCopy takes byte offsets and handles overlapping ranges
+				Buffer.BlockCopy(src, checked((int)srcOffset), dst, checked((int)destOffset), checked((int)bytes));
+				return;
+			}
+			byte[] srcBytes = src as byte[];
+			if (srcBytes != null)
+			{
+				Marshal.Copy(srcBytes, checked((int)srcOffset), new IntPtr(destOffset), checked((int)bytes));
+				return;
+			}
+			byte[] dstBytes = dst as byte[];
+			if (dstBytes != null)
+			{
+				Marshal.Copy(new IntPtr(srcOffset), dstBytes, checked((int)destOffset), checked((int)bytes));
+				return;
+			}
+			// the remaining cases are non-byte arrays and overlapping native memory blocks,
+			// we copy via a temporary buffer (backwards, if the destination overlaps the end of the source)
+			bool backward = src == null && dst == null && destOffset > srcOffset;
+			byte[] buf = new byte[(int)Math.Min(bytes, 64 * 1024)];
+			while (bytes > 0)
+			{
+				int chunk = (int)Math.Min(bytes, buf.Length);
+				long s = backward ? srcOffset + bytes - chunk : srcOffset;
+				long d = backward ? destOffset + bytes - chunk : destOffset;
+				if (src == null)
+				{
+					Marshal.Copy(new IntPtr(s), buf, 0, chunk);
+				}
+				else
+				{
+					Buffer.BlockCopy(src, checked((int)s), buf, 0, chunk);
+				}
+				if (dst == null)
+				{
+					Marshal.Copy(buf, 0, new IntPtr(d), chunk);
+				}
+				else
+				{
+					Buffer.BlockCopy(buf, 0, dst, checked((int)d), chunk);
+				}
+				if (!backward)
+				{
+					srcOffset += chunk;
+					destOffset += chunk;
+				}
+				bytes -= chunk;
+			}
+		}
+
+		public static object createFieldAccessor(object field)
+		{
+#if FIRST_PASS
+			return null;
+#else
+			jlrField f = (jlrField)field;
+			FieldWrapper fw = FieldWrapper.FromField(f);
+			if (IsFastFieldAccessorSupported(fw))
+			{
+				if (fw.FieldTypeWrapper == PrimitiveTypeWrapper.INT)
+				{
+					return new IntFieldAccessor(f, fw);
+				}
+				else if (fw.FieldTypeWrapper == PrimitiveTypeWrapper.LONG)
+				{
+					return new LongFieldAccessor(f, fw);
+				}
+				else if (!fw.FieldTypeWrapper.IsPrimitive)
+				{
+					return new ObjectFieldAccessor(f, fw);
+				}
+			}
+			return new iiUnsafeFieldAccessor(f);
+#endif
+		}
+
+		public static bool compareAndSwapObjectElement(object[] array, int index, object expect, object update)
+		{
+			if (array.GetType() == typeof(object[]))
+			{
+				return Interlocked.CompareExchange(ref array[index], update, expect) == expect;
+			}
+			return GetArrayElementAccessor(array).CompareAndSwap(array, index, expect, update);
+		}
+
+		public static object getObjectVolatileElement(object[] array, int index)
+		{
+			if (array.GetType() == typeof(object[]))
+			{
+				return Thread.VolatileRead(ref array[index]);
+			}
+			return GetArrayElementAccessor(array).GetVolatile(array, index);
+		}
+
+		public static void putObjectVolatileElement(object[] array, int index, object newValue)
+		{
+			if (array.GetType() == typeof(object[]))
+			{
+				Thread.VolatileWrite(ref array[index], newValue);
+			}
+			else
+			{
+				GetArrayElementAccessor(array).PutVolatile(array, index, newValue);
+			}
+		}
+
+		public static bool compareAndSwapIntElement(int[] array, int index, int expect, int update)
+		{
+			return Interlocked.CompareExchange(ref array[index], update, expect) == expect;
+		}
+
+		public static int getIntVolatileElement(int[] array, int index)
+		{
+			return Thread.VolatileRead(ref array[index]);
+		}
+
+		public static void putIntVolatileElement(int[] array, int index, int newValue)
+		{
+			Thread.VolatileWrite(ref array[index], newValue);
+		}
+
+		public static bool compareAndSwapLongElement(long[] array, int index, long expect, long update)
+		{
+			return Interlocked.CompareExchange(ref array[index], update, expect) == expect;
+		}
+
+		public static long getLongVolatileElement(long[] array, int index)
+		{
+			// Thread.VolatileRead(ref long) isn't atomic on 32 bit
+			return Interlocked.Read(ref array[index]);
+		}
+
+		public static void putLongVolatileElement(long[] array, int index, long newValue)
+		{
+			Interlocked.Exchange(ref array[index], newValue);
+		}
+
+		// Arrays are covariant, so we can't take the address of an element of a String[] as a ref object
+		// (that would throw an ArrayTypeMismatchException). Instead we use a generic accessor instantiated
+		// over the actual element type. The accessors are cached in a Hashtable, because that allows
+		// lock free lookups (it supports multiple readers and a single writer).
+		private static readonly System.Collections.Hashtable arrayElementAccessors = new System.Collections.Hashtable();
+
+		private static ArrayElementAccessor GetArrayElementAccessor(object[] array)
+		{
+			Type type = array.GetType();
+			ArrayElementAccessor acc = (ArrayElementAccessor)arrayElementAccessors[type];
+			if (acc == null)
+			{
+				acc = (ArrayElementAccessor)Activator.CreateInstance(typeof(ArrayElementAccessor<>).MakeGenericType(type.GetElementType()));
+				lock (arrayElementAccessors)
+				{
+					arrayElementAccessors[type] = acc;
+				}
+			}
+			return acc;
+		}
+
+		private abstract class ArrayElementAccessor
+		{
+			internal abstract bool CompareAndSwap(object[] array, int index, object expect, object update);
+			internal abstract object GetVolatile(object[] array, int index);
+			internal abstract void PutVolatile(object[] array, int index, object newValue);
+		}
+
+		private sealed class ArrayElementAccessor<T> : ArrayElementAccessor
+			where T : class
+		{
+			internal override bool CompareAndSwap(object[] array, int index, object expect, object update)
+			{
+				T[] arr = (T[])array;
+				T expectT = expect as T;
+				if (expectT == null && expect != null)
+				{
+					// the element can't possibly be equal to expect
+					return false;
+				}
+				return Interlocked.CompareExchange<T>(ref arr[index], (T)update, expectT) == expect;
+			}
+
+			internal override object GetVolatile(object[] array, int index)
+			{
+				object value = ((T[])array)[index];
+				Thread.MemoryBarrier();
+				return value;
+			}
+
+			internal override void PutVolatile(object[] array, int index, object newValue)
+			{
+				Interlocked.Exchange<T>(ref ((T[])array)[index], (T)newValue);
+			}
+		}
+
+#if !FIRST_PASS
+		private static bool IsFastFieldAccessorSupported(FieldWrapper fw)
+		{
+			fw.Link();
+			if (IsSpecialType(fw.DeclaringType) || IsSpecialType(fw.FieldTypeWrapper))
+			{
+				return false;
+			}
+			try
+			{
+				fw.DeclaringType.Finish();
+				fw.FieldTypeWrapper.Finish();
+			}
+			catch (RetargetableJavaException x)
+			{
+				throw x.ToJava();
+			}
+			fw.ResolveField();
+			FieldInfo fi = fw.GetField();
+			return fi != null && !fi.IsLiteral && (fw is SimpleFieldWrapper || fw is VolatileLongDoubleFieldWrapper);
+		}
+
+		private static bool IsSpecialType(TypeWrapper tw)
+		{
+			return tw.IsNonPrimitiveValueType
+				|| tw.IsGhost
+				|| tw.IsFakeNestedType;
+		}
+
+		private delegate bool CompareAndSwap<T>(object obj, T expect, T update);
+		private delegate T GetVolatile<T>(object obj);
+		private delegate void PutVolatile<T>(object obj, T value);
+
+		// The delegates are generated lazily, because lots of fields get an offset without ever being used
+		// for a volatile or compare-and-swap operation (e.g. by serialization libraries).
+		private abstract class FastFieldAccessor<T> : iiUnsafeFieldAccessor
+		{
+			private readonly FieldWrapper fw;
+			private CompareAndSwap<T> compareAndSwap;
+			private GetVolatile<T> getVolatile;
+			private PutVolatile<T> putVolatile;
+
+			internal FastFieldAccessor(jlrField field, FieldWrapper fw)
+				: base(field)
+			{
+				this.fw = fw;
+			}
+
+			protected bool CompareAndSwapImpl(object obj, T expect, T update)
+			{
+				if (compareAndSwap == null)
+				{
+					compareAndSwap = (CompareAndSwap<T>)GenerateCompareAndSwap();
+				}
+				return compareAndSwap(obj, expect, update);
+			}
+
+			protected T GetVolatileImpl(object obj)
+			{
+				if (getVolatile == null)
+				{
+					getVolatile = (GetVolatile<T>)GenerateGetVolatile();
+				}
+				return getVolatile(obj);
+			}
+
+			protected void PutVolatileImpl(object obj, T value)
+			{
+				if (putVolatile == null)
+				{
+					putVolatile = (PutVolatile<T>)GeneratePutVolatile();
+				}
+				putVolatile(obj, value);
+			}
+
+			private DynamicMethod CreateDynamicMethod(string name, Type returnType, Type[] paramTypes)
+			{
+				// FXBUG it appears that a ldsfld/stsfld in a DynamicMethod doesn't trigger the class constructor
+				if (fw.IsStatic)
+				{
+					fw.DeclaringType.RunClassInit();
+				}
+				return DynamicMethodUtils.Create(name, fw.DeclaringType.TypeAsBaseType, true, returnType, paramTypes);
+			}
+
+			private void EmitLoadFieldAddress(CodeEmitter ilgen)
+			{
+				FieldInfo fi = fw.GetField();
+				if (fi.IsStatic)
+				{
+					ilgen.Emit(OpCodes.Ldsflda, fi);
+				}
+				else
+				{
+					ilgen.Emit(OpCodes.Ldarg_0);
+					ilgen.Emit(OpCodes.Castclass, fw.DeclaringType.TypeAsBaseType);
+					ilgen.Emit(OpCodes.Ldflda, fi);
+				}
+			}
+
+			private void EmitLoadValue(CodeEmitter ilgen, OpCode ldarg)
+			{
+				ilgen.Emit(ldarg);
+				if (typeof(T) == typeof(object))
+				{
+					ilgen.Emit(OpCodes.Castclass, fw.GetField().FieldType);
+				}
+			}
+
+			private Delegate GenerateCompareAndSwap()
+			{
+				FieldInfo fi = fw.GetField();
+				DynamicMethod dm = CreateDynamicMethod("__<UnsafeCompareAndSwap>", typeof(bool), new Type[] { typeof(object), typeof(T), typeof(T) });
+				CodeEmitter ilgen = CodeEmitter.Create(dm);
+				if (typeof(T) == typeof(object))
+				{
+					// if the expected value isn't an instance of the field type, the field can't contain it,
+					// so we return false (instead of letting the castclass below throw)
+					CodeEmitterLabel ok = ilgen.DefineLabel();
+					ilgen.Emit(OpCodes.Ldarg_1);
+					ilgen.Emit(OpCodes.Brfalse_S, ok);
+					ilgen.Emit(OpCodes.Ldarg_1);
+					ilgen.Emit(OpCodes.Isinst, fi.FieldType);
+					ilgen.Emit(OpCodes.Brtrue_S, ok);
+					ilgen.Emit(OpCodes.Ldc_I4_0);
+					ilgen.Emit(OpCodes.Ret);
+					ilgen.MarkLabel(ok);
+				}
+				EmitLoadFieldAddress(ilgen);
+				EmitLoadValue(ilgen, OpCodes.Ldarg_2);
+				EmitLoadValue(ilgen, OpCodes.Ldarg_1);
+				ilgen.Emit(OpCodes.Call, GetInterlockedMethod("CompareExchange", fi.FieldType, 3));
+				ilgen.Emit(OpCodes.Ldarg_1);
+				ilgen.Emit(OpCodes.Ceq);
+				ilgen.Emit(OpCodes.Ret);
+				return dm.CreateDelegate(typeof(CompareAndSwap<T>));
+			}
+
+			private Delegate GenerateGetVolatile()
+			{
+				FieldInfo fi = fw.GetField();
+				DynamicMethod dm = CreateDynamicMethod("__<UnsafeGetVolatile>", typeof(T), new Type[] { typeof(object) });
+				CodeEmitter ilgen = CodeEmitter.Create(dm);
+				if (typeof(T) == typeof(long))
+				{
+					// a volatile load of a long isn't atomic on 32 bit
+					EmitLoadFieldAddress(ilgen);
+					ilgen.Emit(OpCodes.Call, typeof(Interlocked).GetMethod("Read", new Type[] { typeof(long).MakeByRefType() }));
+				}
+				else if (fi.IsStatic)
+				{
+					ilgen.Emit(OpCodes.Volatile);
+					ilgen.Emit(OpCodes.Ldsfld, fi);
+				}
+				else
+				{
+					ilgen.Emit(OpCodes.Ldarg_0);
+					ilgen.Emit(OpCodes.Castclass, fw.DeclaringType.TypeAsBaseType);
+					ilgen.Emit(OpCodes.Volatile);
+					ilgen.Emit(OpCodes.Ldfld, fi);
+				}
+				ilgen.Emit(OpCodes.Ret);
+				return dm.CreateDelegate(typeof(GetVolatile<T>));
+			}
+
+			private Delegate GeneratePutVolatile()
+			{
+				FieldInfo fi = fw.GetField();
+				DynamicMethod dm = CreateDynamicMethod("__<UnsafePutVolatile>", null, new Type[] { typeof(object), typeof(T) });
+				CodeEmitter ilgen = CodeEmitter.Create(dm);
+				if (typeof(T) == typeof(long))
+				{
+					// a volatile store of a long isn't atomic on 32 bit
+					EmitLoadFieldAddress(ilgen);
+					ilgen.Emit(OpCodes.Ldarg_1);
+					ilgen.Emit(OpCodes.Call, GetInterlockedMethod("Exchange", typeof(long), 2));
+					ilgen.Emit(OpCodes.Pop);
+				}
+				else if (fi.IsStatic)
+				{
+					EmitLoadValue(ilgen, OpCodes.Ldarg_1);
+					ilgen.Emit(OpCodes.Volatile);
+					ilgen.Emit(OpCodes.Stsfld, fi);
+				}
+				else
+				{
+					ilgen.Emit(OpCodes.Ldarg_0);
+					ilgen.Emit(OpCodes.Castclass, fw.DeclaringType.TypeAsBaseType);
+					EmitLoadValue(ilgen, OpCodes.Ldarg_1);
+					ilgen.Emit(OpCodes.Volatile);
+					ilgen.Emit(OpCodes.Stfld, fi);
+				}
+				ilgen.Emit(OpCodes.Ret);
+				return dm.CreateDelegate(typeof(PutVolatile<T>));
+			}
+		}
+
+		private static MethodInfo GetInterlockedMethod(string name, Type type, int parameterCount)
+		{
+			foreach (MethodInfo m in typeof(Interlocked).GetMethods())
+			{
+				if (m.Name == name && m.GetParameters().Length == parameterCount)
+				{
+					if (type.IsValueType)
+					{
+						if (!m.IsGenericMethodDefinition && m.GetParameters()[0].ParameterType == type.MakeByRefType())
+						{
+							return m;
+						}
+					}
+					else if (m.IsGenericMethodDefinition)
+					{
+						return m.MakeGenericMethod(type);
+					}
+				}
+			}
+			throw new InvalidOperationException();
+		}
+
+		private sealed class IntFieldAccessor : FastFieldAccessor<int>
+		{
+			internal IntFieldAccessor(jlrField field, FieldWrapper fw)
+				: base(field, fw)
+			{
+			}
+
+			public override bool compareAndSwapInt(object obj, int expect, int update)
+			{
+				return CompareAndSwapImpl(obj, expect, update);
+			}
+
+			public override int getIntVolatile(object obj)
+			{
+				return GetVolatileImpl(obj);
+			}
+
+			public override void putIntVolatile(object obj, int newValue)
+			{
+				PutVolatileImpl(obj, newValue);
+			}
+		}
+
+		private sealed class LongFieldAccessor : FastFieldAccessor<long>
+		{
+			internal LongFieldAccessor(jlrField field, FieldWrapper fw)
+				: base(field, fw)
+			{
+			}
+
+			public override bool compareAndSwapLong(object obj, long expect, long update)
+			{
+				return CompareAndSwapImpl(obj, expect, update);
+			}
+
+			public override long getLongVolatile(object obj)
+			{
+				return GetVolatileImpl(obj);
+			}
+
+			public override void putLongVolatile(object obj, long newValue)
+			{
+				PutVolatileImpl(obj, newValue);
+			}
+		}
+
+		private sealed class ObjectFieldAccessor : FastFieldAccessor<object>
+		{
+			internal ObjectFieldAccessor(jlrField field, FieldWrapper fw)
+				: base(field, fw)
+			{
+			}
+
+			public override bool compareAndSwapObject(object obj, object expect, object update)
+			{
+				return CompareAndSwapImpl(obj, expect, update);
+			}
+
+			public override object getObjectVolatile(object obj)
+			{
+				return GetVolatileImpl(obj);
+			}
+
+			public override void putObjectVolatile(object obj, object newValue)
+			{
+				PutVolatileImpl(obj, newValue);
+			}
+		}
+#endif
 	}
 
 	static class Version